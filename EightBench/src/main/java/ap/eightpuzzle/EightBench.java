@@ -0,0 +1,34 @@
+package ap.eightpuzzle;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks: java -jar EightBench/target/benchmarks.jar [JMH options]
+ *
+ * Design choices:
+ * - The options of the command line are the ones of JMH (e.g. a regular expression
+ *   of the benchmarks to run, -f, -wi, -i);
+ * - The GC profiler is always on, so every score comes with the bytes allocated per operation;
+ * - The forked JVMs are headless: the beans are Swing components, but no window is opened.
+ *
+ * @author marco
+ */
+public final class EightBench {
+
+    private EightBench(){}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Djava.awt.headless=true")
+                .build();
+        new Runner(options).run();
+    }
+}
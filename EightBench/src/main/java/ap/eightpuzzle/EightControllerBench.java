@@ -0,0 +1,109 @@
+package ap.eightpuzzle;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyVetoException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks of the moves by the controller, through the bean events and through the bus.
+ *
+ * The hole starts at the center of the 8 version: the tile 2 above it is moved back and forth,
+ * so every legal operation is a real move and the board never drifts; the tile 1 in the corner
+ * is never adjacent to the hole, so every illegal operation is a veto.
+ * applyMoves applies the same back and forth as a sequence of WALK moves, and is scored per move.
+ *
+ * @author marco
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EightControllerBench {
+    private static final int[] CENTER = { 1, 2, 3, 4, 9, 6, 7, 8, 5 };
+    private static final int WALK = 1000;
+
+    private EightController beans;                  // wired through the bean events
+    private EightController typed;                  // wired through the bus
+    private EightBus bus;
+    private PropertyChangeEvent legal;
+    private PropertyChangeEvent illegal;
+    private EightController bulk;                   // moved by sequences, on its own bus
+    private EightBus bulk_bus;
+    private byte[] walk;                            // WALK moves of the hole, up and down
+
+    @Setup
+    public void setup(){
+        beans = new EightController();
+        legal = new PropertyChangeEvent(this, "label", 2, 9);
+        illegal = new PropertyChangeEvent(this, "label", 1, 9);
+
+        bus = new EightBus();
+        typed = new EightController();
+        typed.setBus(bus);
+
+        bulk_bus = new EightBus();
+        bulk = new EightController();
+        bulk.setBus(bulk_bus);
+        walk = new byte[WALK];
+        for (int i=0; i < WALK; i++)
+            walk[i] = (byte) (i % 2 == 0 ? EightLayout.UP : EightLayout.DOWN);
+    }
+
+    /**
+     * Restarts every controller at every iteration, so their histories do not grow beyond it
+     * and the three move paths are measured the same way
+     */
+    @Setup(Level.Iteration)
+    public void restart(){
+        beans.restarted(CENTER);
+        bus.fireRestarted(CENTER);
+        bulk_bus.fireRestarted(CENTER);
+    }
+
+    @Benchmark
+    public boolean vetoableChangeLegal() throws PropertyVetoException {
+        beans.vetoableChange(legal);
+        return true;
+    }
+
+    @Benchmark
+    public boolean vetoableChangeIllegal(){
+        try {
+            beans.vetoableChange(illegal);
+            return true;
+        }
+        catch (PropertyVetoException e){
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean requestMoveLegal(){
+        return bus.requestMove(2);
+    }
+
+    @Benchmark
+    public boolean requestMoveIllegal(){
+        return bus.requestMove(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WALK)
+    public int applyMoves(){
+        return bulk.applyMoves(walk);
+    }
+}
@@ -0,0 +1,353 @@
+package ap.eightpuzzle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Macro benchmark and regression suite of the solvers: solves fixed corpora of boards
+ * and compares the results with a baseline report.
+ *
+ * Corpora, all generated from fixed seeds:
+ * - eight: boards of the 8 version at every distance from 0 to 31 (up to PER_DEPTH each),
+ *   drawn at random and classified by the exact distances of EightTable; solved by A*;
+ * - fifteen: uniformly random solvable boards of the 15 version, as in Korf's instances; solved by IDA*;
+ * - hard: the boards of the 15 version with the largest estimate among HARD_CANDIDATES random ones.
+ *
+ * Report: a CSV line per board, with the length of the solution, the nodes expanded, the wall time,
+ * the nodes per second and the peak of the heap during the search (the peak usage of the heap pools,
+ * reset before each board: garbage included, as the JVM reports it).
+ *
+ * Regression: a baseline is a previous report. The run fails (exit status 1) if a board solved is not
+ * in the baseline or a board of the baseline (of a corpus run) is not solved, if a solution
+ * has a different length (the solvers are optimal), if a board expands more nodes than the baseline
+ * by more than the threshold, or if the wall time of a corpus exceeds the baseline by more
+ * than the time threshold (and by more than TIME_SLACK); the nodes are deterministic, the time is not,
+ * so its threshold is looser.
+ *
+ * Usage: EightCorpus [--corpus eight,fifteen,hard] [--report file] [--baseline file]
+ *                    [--threshold 0.05] [--time-threshold 0.5]
+ *
+ * @author marco
+ */
+public final class EightCorpus {
+    static final int PER_DEPTH = 4;                 // boards of the 8 version per distance
+    static final int FIFTEEN = 10;
+    static final int HARD = 3;
+    static final int HARD_CANDIDATES = 200;
+    private static final long SEED = 42;
+    private static final long TIME_SLACK = 100_000_000;    // nanoseconds of noise tolerated on any corpus
+    private static final String HEADER = "corpus,id,side,moves,expanded,nanos,nodes_per_sec,peak_heap_bytes";
+
+    /**
+     * Result of the solution of a board
+     */
+    static final class Result {
+        final String corpus;
+        final int id, side, moves;
+        final long expanded, nanos, peak;
+
+        Result(String corpus, int id, int side, int moves, long expanded, long nanos, long peak){
+            this.corpus = corpus;
+            this.id = id;
+            this.side = side;
+            this.moves = moves;
+            this.expanded = expanded;
+            this.nanos = nanos;
+            this.peak = peak;
+        }
+
+        String key(){
+            return corpus+"/"+id;
+        }
+
+        @Override
+        public String toString(){
+            long rate = nanos == 0 ? 0 : expanded * 1_000_000_000L / nanos;
+            return corpus+","+id+","+side+","+moves+","+expanded+","+nanos+","+rate+","+peak;
+        }
+
+        static Result parse(String line){
+            String[] f = line.split(",");
+            return new Result(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                              Long.parseLong(f[4]), Long.parseLong(f[5]), Long.parseLong(f[7]));
+        }
+    }
+
+    private EightCorpus(){}
+
+    public static void main(String[] args) throws IOException {
+        List<String> corpora = Arrays.asList("eight", "fifteen", "hard");
+        Path report = null, baseline = null;
+        double threshold = 0.05, time_threshold = 0.5;
+        for (int i=0; i < args.length; i++){
+            String arg = args[i];
+            if (i+1 == args.length)
+                usage();
+            switch (arg){
+                case "--corpus":            corpora = Arrays.asList(args[++i].split(",")); break;
+                case "--report":            report = Paths.get(args[++i]); break;
+                case "--baseline":          baseline = Paths.get(args[++i]); break;
+                case "--threshold":         threshold = Double.parseDouble(args[++i]); break;
+                case "--time-threshold":    time_threshold = Double.parseDouble(args[++i]); break;
+                default:                    usage();
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String corpus : corpora){
+            List<Result> solved = run(corpus);
+            long expanded = 0, nanos = 0;
+            for (Result r : solved){
+                expanded += r.expanded;
+                nanos += r.nanos;
+            }
+            System.err.printf("%-8s %4d boards %,15d nodes %10.1f ms %,13d nodes/s%n", corpus, solved.size(),
+                              expanded, nanos / 1e6, nanos == 0 ? 0 : expanded * 1_000_000_000L / nanos);
+            results.addAll(solved);
+        }
+
+        if (report != null)
+            try (BufferedWriter out = Files.newBufferedWriter(report, StandardCharsets.UTF_8)){
+                out.write(HEADER);
+                out.newLine();
+                for (Result r : results){
+                    out.write(r.toString());
+                    out.newLine();
+                }
+            }
+
+        if (baseline != null){
+            List<String> failures = compare(results, read(baseline), threshold, time_threshold);
+            for (String f : failures)
+                System.err.println("REGRESSION "+f);
+            if (!failures.isEmpty())
+                System.exit(1);
+            System.err.println("No regression against "+baseline);
+        }
+    }
+
+    /**
+     * Solves a corpus
+     * @param corpus eight, fifteen or hard
+     * @return a result per board
+     */
+    static List<Result> run(String corpus){
+        List<Result> results = new ArrayList<>();
+        switch (corpus){
+            case "eight": {
+                EightSolver solver = new EightSolver(3);
+                List<int[]> boards = eight(new Random(SEED));
+                for (int i=0; i < boards.size(); i++)
+                    results.add(solve(corpus, i, 3, boards.get(i), solver::solve, solver::getExpanded));
+                break;
+            }
+            case "fifteen":
+            case "hard": {
+                EightIDASolver solver = new EightIDASolver(4);
+                List<int[]> boards = corpus.equals("fifteen") ? random(new Random(SEED), 4, FIFTEEN)
+                                                              : hard(new Random(SEED), HARD);
+                for (int i=0; i < boards.size(); i++)
+                    results.add(solve(corpus, i, 4, boards.get(i), solver::solve, solver::getExpanded));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown corpus: "+corpus);
+        }
+        return results;
+    }
+
+    /**
+     * Compares a run with a baseline; the boards of a corpus run must match the ones of the baseline
+     * one to one (the baseline may hold corpora not run)
+     * @return the description of each regression, empty if none
+     */
+    static List<String> compare(List<Result> results, List<Result> baseline, double threshold, double time_threshold){
+        Map<String, Result> base = new LinkedHashMap<>();
+        for (Result r : baseline)
+            base.put(r.key(), r);
+        List<String> failures = new ArrayList<>();
+        Map<String, long[]> times = new LinkedHashMap<>();  // corpus -> { nanos, baseline nanos }
+        Map<String, Integer> matched = new LinkedHashMap<>();   // corpus run -> boards in the baseline
+        for (Result r : results){
+            matched.putIfAbsent(r.corpus, 0);
+            Result b = base.remove(r.key());
+            if (b == null){
+                failures.add(r.key()+": not in the baseline");
+                continue;
+            }
+            matched.merge(r.corpus, 1, Integer::sum);
+            if (r.moves != b.moves)
+                failures.add(r.key()+": "+r.moves+" moves instead of "+b.moves);
+            else if (r.expanded > b.expanded * (1+threshold))
+                failures.add(r.key()+": "+r.expanded+" nodes expanded instead of "+b.expanded);
+            long[] t = times.computeIfAbsent(r.corpus, c -> new long[2]);
+            t[0] += r.nanos;
+            t[1] += b.nanos;
+        }
+        for (Result b : base.values())
+            if (matched.containsKey(b.corpus))
+                failures.add(b.key()+": in the baseline, not solved");
+        for (Map.Entry<String, Integer> e : matched.entrySet())
+            if (e.getValue() == 0)
+                failures.add(e.getKey()+": no board of the baseline (corpus, seed or key changed?)");
+        for (Map.Entry<String, long[]> e : times.entrySet()){
+            long[] t = e.getValue();
+            if (t[0] > t[1] * (1+time_threshold) && t[0] - t[1] > TIME_SLACK)
+                failures.add(e.getKey()+": "+t[0]/1_000_000+" ms instead of "+t[1]/1_000_000+" ms");
+        }
+        return failures;
+    }
+
+    /********** Corpora **********/
+
+    /**
+     * @return up to PER_DEPTH boards of the 8 version at each distance, by increasing distance
+     */
+    static List<int[]> eight(Random random){
+        EightTable table = EightTable.build();
+        List<List<int[]>> depths = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        EightLayout b = new EightLayout(3);
+        int[] layout = new int[9];
+        // the few boards at distance 0, 1 and 31 need about a million draws
+        for (int draw=0; draw < 4_000_000 && !full(depths); draw++){
+            shuffle(random, layout);
+            b.reset(layout);
+            if (!b.isSolvable())
+                continue;
+            int d = table.distance(b.getPacked());
+            while (depths.size() <= d)
+                depths.add(new ArrayList<>());
+            if (depths.get(d).size() < PER_DEPTH && seen.add(b.getPacked()))
+                depths.get(d).add(layout.clone());
+        }
+        List<int[]> boards = new ArrayList<>();
+        for (List<int[]> d : depths)
+            boards.addAll(d);
+        return boards;
+    }
+
+    /**
+     * @return count uniformly random boards that can be sorted
+     */
+    static List<int[]> random(Random random, int row_length, int count){
+        List<int[]> boards = new ArrayList<>();
+        EightLayout b = new EightLayout(row_length);
+        int[] layout = new int[row_length*row_length];
+        while (boards.size() < count){
+            shuffle(random, layout);
+            b.reset(layout);
+            if (b.isSolvable())
+                boards.add(layout.clone());
+        }
+        return boards;
+    }
+
+    /**
+     * @return the count boards of the 15 version with the largest estimate among HARD_CANDIDATES
+     */
+    static List<int[]> hard(Random random, int count){
+        List<int[]> candidates = random(random, 4, HARD_CANDIDATES);
+        EightHeuristic h = new EightHeuristic(4);
+        EightLayout b = new EightLayout(4);
+        int[] estimates = new int[candidates.size()];
+        for (int i=0; i < estimates.length; i++){
+            b.reset(candidates.get(i));
+            estimates[i] = h.estimate(b.getPacked());
+        }
+        List<int[]> boards = new ArrayList<>();
+        boolean[] taken = new boolean[estimates.length];
+        for (int k=0; k < count; k++){
+            int best = -1;
+            for (int i=0; i < estimates.length; i++)
+                if (!taken[i] && (best < 0 || estimates[i] > estimates[best]))
+                    best = i;
+            taken[best] = true;
+            boards.add(candidates.get(best));
+        }
+        return boards;
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * Solves a board, measuring the time and the peak of the heap
+     * @param solver the solver
+     * @param expanded the nodes expanded by the last search of the solver
+     */
+    private static Result solve(String corpus, int id, int side, int[] layout, 
+                                Function<int[], byte[]> solver, LongSupplier expanded){
+        List<MemoryPoolMXBean> pools = heapPools();
+        for (MemoryPoolMXBean p : pools)
+            p.resetPeakUsage();
+        long start = System.nanoTime();
+        byte[] moves = solver.apply(layout);
+        long nanos = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean p : pools)
+            peak += p.getPeakUsage().getUsed();
+        return new Result(corpus, id, side, moves == null ? -1 : moves.length, expanded.getAsLong(), nanos, peak);
+    }
+
+    private static List<MemoryPoolMXBean> heapPools(){
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP && p.isValid())
+                pools.add(p);
+        return pools;
+    }
+
+    private static boolean full(List<List<int[]>> depths){
+        // 32 distances; 1 board at distance 0, 2 at distance 1 and 2 at distance 31
+        if (depths.size() < 32)
+            return false;
+        for (int d=0; d < 32; d++){
+            int wanted = d == 0 ? 1 : (d == 1 || d == 31) ? 2 : PER_DEPTH;
+            if (depths.get(d).size() < Math.min(wanted, PER_DEPTH))
+                return false;
+        }
+        return true;
+    }
+
+    private static void shuffle(Random random, int[] labels){
+        for (int i=0; i < labels.length; i++)
+            labels[i] = i+1;
+        for (int i=labels.length-1; i > 0; i--){
+            int j = random.nextInt(i+1);
+            int tmp = labels[i];
+            labels[i] = labels[j];
+            labels[j] = tmp;
+        }
+    }
+
+    private static List<Result> read(Path file) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+            if (!line.isEmpty() && !line.equals(HEADER))
+                results.add(Result.parse(line));
+        return results;
+    }
+
+    private static void usage(){
+        System.err.println("Usage: EightCorpus [--corpus eight,fifteen,hard] [--report file] [--baseline file]"
+                           +" [--threshold 0.05] [--time-threshold 0.5]");
+        System.exit(2);
+    }
+}
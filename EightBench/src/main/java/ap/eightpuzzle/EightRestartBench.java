@@ -0,0 +1,83 @@
+package ap.eightpuzzle;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restart of the game: generation of the configuration (uniform or at distance 20)
+ * and its application by the controller, through the bean event and through the bus.
+ *
+ * @author marco
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EightRestartBench {
+
+    @Param({ "3", "4", "10" })
+    public int side;
+
+    private SplittableRandom random;
+    private EightScramble scramble;
+    private EightController beans;
+    private EightBus bus;
+    private PropertyChangeEvent restart;
+    private int[] layout;
+    private int[] scratch;
+
+    @Setup
+    public void setup(){
+        random = new SplittableRandom(42);
+        scramble = new EightScramble(side);
+        layout = scramble.next(random, new int[side*side]);
+        scratch = new int[layout.length];
+        List<Integer> list = new ArrayList<>();
+        for (int l : layout)
+            list.add(l);
+
+        beans = new EightController(side);
+        restart = new PropertyChangeEvent(this, "restart", null, list);
+
+        bus = new EightBus();
+        new EightController(side).setBus(bus);
+    }
+
+    @Benchmark
+    public int[] scramble(){
+        return scramble.next(random, scratch);
+    }
+
+    @Benchmark
+    public int[] scrambleDepth(){
+        return scramble.atDepth(random, 20, scratch);
+    }
+
+    @Benchmark
+    public EightController propertyChangeRestart(){
+        beans.propertyChange(restart);
+        return beans;
+    }
+
+    @Benchmark
+    public int[] fireRestarted(){
+        bus.fireRestarted(layout);
+        return layout;
+    }
+}
@@ -0,0 +1,142 @@
+package ap.eightpuzzle;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Solvers and estimates: A* on the 8 version, IDA* on the 15 version,
+ * the full and incremental estimates of EightHeuristic and the metrics of the controller.
+ *
+ * The boards are random walks from the sorted one, generated with a fixed seed,
+ * so every run solves the same instances.
+ *
+ * @author marco
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EightSolverBench {
+    private static final int INSTANCES = 16;
+    private static final int WALK = 1024;           // moves of the walk of the estimates
+
+    private int[][] eight;                          // 8 version, random walks of 200 moves
+    private int[][] fifteen;                        // 15 version, random walks of 40 moves
+    private EightSolver astar;
+    private EightIDASolver ida;
+    private EightHeuristic heuristic;
+    private EightMetrics metrics;
+    private EightLayout board;                      // board of the walk
+    private EightLayout scratch;                    // board of the full estimates
+    private byte[] walk;                            // a closed walk: the board never drifts
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        eight = walks(random, 3, 200);
+        fifteen = walks(random, 4, 40);
+        astar = new EightSolver(3);
+        ida = new EightIDASolver(4);
+        heuristic = new EightHeuristic(4);
+        metrics = new EightMetrics(4);
+        board = new EightLayout(4);
+        board.reset(fifteen[0]);
+        metrics.reset(board);
+        scratch = new EightLayout(4);
+
+        walk = new byte[WALK];
+        EightLayout b = new EightLayout(board);
+        for (int i=0; i < WALK/2; i++){
+            int dir;
+            do
+                dir = random.nextInt(4);
+            while (!b.canMove(dir));
+            b.move(dir);
+            walk[i] = (byte) dir;
+        }
+        for (int i=0; i < WALK/2; i++)
+            walk[WALK/2+i] = (byte) (walk[WALK/2-1-i] ^ 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES)
+    public int astarEight(){
+        int moves = 0;
+        for (int[] layout : eight)
+            moves += astar.solve(layout).length;
+        return moves;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES)
+    public int idaFifteen(){
+        int moves = 0;
+        for (int[] layout : fifteen)
+            moves += ida.solve(layout).length;
+        return moves;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTANCES)
+    public int estimatePacked(){
+        int h = 0;
+        for (int[] layout : fifteen){
+            scratch.reset(layout);
+            h += heuristic.estimate(scratch.getPacked());
+        }
+        return h;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WALK)
+    public int deltaPacked(){
+        int h = 0;
+        for (byte dir : walk){
+            long before = board.getPacked();
+            int blank = board.hole()-1;
+            board.move(dir);
+            h += heuristic.delta(before, board.getPacked(), board.hole()-1, blank);
+        }
+        return h;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WALK)
+    public int metricsMoved(){
+        for (byte dir : walk){
+            board.move(dir);
+            metrics.moved(board, dir);
+        }
+        return metrics.getManhattan() + metrics.getConflicts();
+    }
+
+    /**
+     * @return INSTANCES boards, each a random walk of the given length from the sorted one
+     */
+    private static int[][] walks(Random random, int row_length, int length){
+        int[][] boards = new int[INSTANCES][];
+        for (int k=0; k < INSTANCES; k++){
+            EightLayout b = new EightLayout(row_length);
+            for (int i=0; i < length; i++){
+                int dir = random.nextInt(4);
+                if (b.canMove(dir))
+                    b.move(dir);
+            }
+            boards[k] = b.toArray(new int[b.getSize()]);
+        }
+        return boards;
+    }
+}
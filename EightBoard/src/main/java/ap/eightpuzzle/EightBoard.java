@@ -1,12 +1,10 @@
 package ap.eightpuzzle;
 
-import java.util.ArrayList;
-import java.util.Random;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.GridLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyVetoException;
-import java.beans.VetoableChangeSupport;
 
 /**
  * Advanced Programming - Assignment 1.1
@@ -24,8 +22,8 @@ import java.beans.VetoableChangeSupport;
  * 
  * Design choices:
  * - Also the board reuses the ChangePropertyListener list inherited from Component;
- * - The method for the generation of the new configuration returns an ArrayList that represents
- *   the tiles in a positional way: the i-th element is the label for the i-th tile.
+ * - The new configurations are generated by an EightScramble, uniform among the solvable ones;
+ *   they represent the tiles in a positional way: the i-th element is the label for the i-th tile.
  *   This is mainly due to the fact the tile access to the map through the position, 
  *   instead the controller through the label. 
  *   In this way both the controller and the tile can easily access to the map.
@@ -44,6 +42,25 @@ import java.beans.VetoableChangeSupport;
  *   this property is used as a flag to know if the game is started
  * - The flip event is implemented through a VetoablePropertyChange, the controller is triggered
  *   and will decide if the flip is legal; if it is, swap the labels;
+ * - The events above travel on a typed EightBus shared by tiles, controller and board
+ *   (primitive callbacks, boolean vetoes, copy-on-write listener arrays), because a move 
+ *   through PropertyChangeEvents allocated events, boxed integers and exceptions; 
+ *   the bean events are still available through getBeanAdapter();
+ * - The side of the board is a runtime parameter (3 by default, "--size n" on the command line):
+ *   the tiles are created in a loop and kept in an array indexed by position,
+ *   so wiring them and updating the old hole are O(1) per tile whatever the size;
+ * - A restart is a batch update (setConfiguration): the configuration is checked, the tiles update
+ *   their labels without repainting themselves and the board repaints once, instead of once per tile;
+ * - UNDO and REDO ask the controller, which keeps the history of the moves and requests
+ *   the inverse moves to the bus: the tiles are updated as for a click, flips included,
+ *   since the tiles swap on the flipped event instead of in the FLIP handler;
+ * - The metrics of the controller (Manhattan distance, linear conflicts, misplaced tiles, parity)
+ *   are bound properties, shown below the buttons: the board reads no tile to compute them;
+ * - HINT runs the search of the next move on a background thread (EightHint), cancelled by
+ *   the next move or restart: the handlers on the EDT never wait for the solver;
+ *   on a board that cannot be sorted the hints lead the hole to the corner, then light FLIP;
+ * - Large boards can be drawn by a single EightGrid ("--painted" on the command line)
+ *   instead of a JButton per cell: the grid is a listener of the bus as the tiles are;
  * 
  * Event source:
  * - a restart event
@@ -56,60 +73,110 @@ import java.beans.VetoableChangeSupport;
  */
 public class EightBoard extends javax.swing.JFrame 
         implements PropertyChangeListener{
+    private static final int TILE_SIZE = 90;        // preferred side of a tile, in pixels
+    private static final int GRID_SIZE = 900;       // maximum preferred side of the grid
+    private static final int HINT = 1000;           // milliseconds of cyan of a hinted flip
             
+    /**
+     * Creates new form MainFrame for the 8 version
+     */
+    public EightBoard() {
+        this(3);
+    }
+    
+    /**
+     * Creates new form MainFrame, with a tile per cell
+     * @param row_length the number of tiles in a row
+     */
+    public EightBoard(int row_length) {
+        this(row_length, false);
+    }
+    
     /**
      * Creates new form MainFrame
      * Initializes tiles, controller and buttons
      * Register the tiles and the controller for the restart event
+     * @param row_length the number of tiles in a row
+     * @param painted true to draw the tiles with a single EightGrid, false for a tile per cell
      */
-    public EightBoard() {
+    public EightBoard(int row_length, boolean painted) {
+        this.row_length = row_length;
+        this.painter = painted ? new EightGrid(row_length) : null;
+        this.hints = new EightHint(row_length);
+        this.scramble = new EightScramble(row_length);
         initComponents();
         
-        // Register controller as vetoable to all the tiles
-        tile1.addVetoableChangeListener(controller);
-        tile2.addVetoableChangeListener(controller);
-        tile3.addVetoableChangeListener(controller);
-        tile4.addVetoableChangeListener(controller);
-        tile5.addVetoableChangeListener(controller);
-        tile6.addVetoableChangeListener(controller);
-        tile7.addVetoableChangeListener(controller);
-        tile8.addVetoableChangeListener(controller);
-        tile9.addVetoableChangeListener(controller);
+        if (painted){
+            // A single component paints the tiles and forwards the clicks to the bus
+            grid.setLayout(new java.awt.BorderLayout());
+            grid.add(painter);
+            painter.setEnabled(false);
+            painter.setBus(bus);
+            this.tiles = null;
+        }
+        else{
+            // Create the tiles in the grid, in positional order: they follow the moves, 
+            // the flips and the restarts on the bus
+            grid.setLayout(new GridLayout(row_length, row_length, 6, 6));
+            int side = Math.min(TILE_SIZE*row_length, GRID_SIZE);
+            grid.setPreferredSize(new Dimension(side, side));
+            this.tiles = new EightTiles(row_length, bus, grid).getTiles();
+            for (EightTile tile : tiles)
+                tile.addActionListener(e -> tile_onClick(tile));
+        }
+        pack();
         
-        // Register the tiles as listeners for the restart event        
-        this.addPropertyChangeListener(tile1);
-        this.addPropertyChangeListener(tile2);
-        this.addPropertyChangeListener(tile3);
-        this.addPropertyChangeListener(tile4);
-        this.addPropertyChangeListener(tile5);
-        this.addPropertyChangeListener(tile6);
-        this.addPropertyChangeListener(tile7);
-        this.addPropertyChangeListener(tile8);
-        this.addPropertyChangeListener(tile9);
-        this.addPropertyChangeListener(controller);
+        // Register the controller to the bus: it checks the clicks
+        controller.setBus(bus);
         
-        // Register the board as listener for the controller
-        controller.eightAddPropertyChangeListener(this);
+        // Show the distance from the sorted board, as maintained by the controller
+        for (String metric : new String[]{ "manhattan", "conflicts", "misplaced", "parity" })
+            controller.eightAddPropertyChangeListener(metric, e -> showMetrics());
         
+        // The hint engine cancels its search at every move, flip and restart
+        bus.addListener(hints);
         
-        this.vetos.addVetoableChangeListener(controller);
+        // The bean events are still available to external listeners
+        this.beans = EightBeanAdapter.attach(bus, this, row_length*row_length);
     }
     
     /**
-     * Generates a new configuration for the tiles, that is a random permutation of [1,9]
-     * @return a list of labels: the i-th label will be binded to the (i+1)-th tile
+     * @return the adapter that forwards the events of the board as bean events
      */
-    private ArrayList<Integer> newConfiguration(){
-        Random r = new Random();
-        ArrayList<Integer> A = new ArrayList<>();
-        
-        while (A.size() < 9){
-            int rand = r.nextInt(1, 10);
-            if (!A.contains(rand))
-                A.add(rand);
+    public EightBeanAdapter getBeanAdapter(){
+        return beans;
+    }
+    
+    /**
+     * Batch update: applies a whole configuration to the controller and to the tiles in one transaction;
+     * the configuration is checked before touching anything, the tiles are updated 
+     * without repainting and the board is repainted once at the end
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @throws IllegalArgumentException if layout is not a permutation of [1, n*n]
+     */
+    public void setConfiguration(int[] layout){
+        int size = row_length*row_length;
+        if (layout.length != size)
+            throw new IllegalArgumentException("Wrong layout size: "+layout.length);
+        boolean[] seen = new boolean[size];
+        for (int l : layout){
+            if (l < 1 || l > size || seen[l-1])
+                throw new IllegalArgumentException("Not a permutation of [1, "+size+"]");
+            seen[l-1] = true;
         }
         
-        return A;
+        bus.fireRestarted(layout);
+        grid.revalidate();
+        grid.repaint();
+    }
+    
+    /**
+     * Updates the label of the metrics, after a change of one of them
+     */
+    private void showMetrics(){
+        metrics.setText("Manhattan "+controller.getManhattan()+" + conflicts "+controller.getConflicts()
+                +"   misplaced "+controller.getMisplaced()
+                +"   parity "+(controller.getParity() == 0 ? "even" : "odd"));
     }
     
     /**
@@ -121,95 +188,65 @@ public class EightBoard extends javax.swing.JFrame
     // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
     private void initComponents() {
 
-        tile1 = new ap.eightpuzzle.EightTile(1);
-        tile2 = new ap.eightpuzzle.EightTile(2);
-        tile3 = new ap.eightpuzzle.EightTile(3);
-        tile4 = new ap.eightpuzzle.EightTile(4);
-        tile6 = new ap.eightpuzzle.EightTile(6);
-        tile7 = new ap.eightpuzzle.EightTile(7);
-        tile8 = new ap.eightpuzzle.EightTile(8);
-        tile9 = new ap.eightpuzzle.EightTile(9);
-        tile5 = new ap.eightpuzzle.EightTile(5);
-        controller = new ap.eightpuzzle.EightController();
+        grid = new javax.swing.JPanel();
+        controller = new ap.eightpuzzle.EightController(row_length);
         flip = new javax.swing.JButton();
         restart = new javax.swing.JButton();
+        undo = new javax.swing.JButton();
+        hint = new javax.swing.JButton();
+        redo = new javax.swing.JButton();
+        metrics = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
 
-        tile1.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile1_onClick(evt);
-            }
-        });
-
-        tile2.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile2_onClick(evt);
-            }
-        });
-
-        tile3.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile3_onClick(evt);
-            }
-        });
-
-        tile4.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile4_onClick(evt);
-            }
-        });
-
-        tile6.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile6_onClick(evt);
-            }
-        });
+        grid.setLayout(new java.awt.GridLayout(3, 3));
 
-        tile7.addActionListener(new java.awt.event.ActionListener() {
+        controller.setText("START");
+        controller.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile7_onClick(evt);
+                startGame(evt);
             }
         });
 
-        tile8.addActionListener(new java.awt.event.ActionListener() {
+        flip.setText("FLIP");
+        flip.setBackground(Color.darkGray);
+        flip.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile8_onClick(evt);
+                flip(evt);
             }
         });
 
-        tile9.addActionListener(new java.awt.event.ActionListener() {
+        restart.setText("RESTART");
+        restart.setBackground(Color.darkGray);
+        restart.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile9_onClick(evt);
+                restart(evt);
             }
         });
 
-        tile5.addActionListener(new java.awt.event.ActionListener() {
+        undo.setText("UNDO");
+        undo.setBackground(Color.darkGray);
+        undo.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                tile5_onClick(evt);
+                undo(evt);
             }
         });
 
-        controller.setText("START");
-        controller.addActionListener(new java.awt.event.ActionListener() {
+        hint.setText("HINT");
+        hint.setBackground(Color.darkGray);
+        hint.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                startGame(evt);
+                hint(evt);
             }
         });
 
-        flip.setText("FLIP");
-        flip.setBackground(Color.darkGray);
-        flip.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                flip(evt);
-            }
-        });
+        metrics.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
 
-        restart.setText("RESTART");
-        restart.setBackground(Color.darkGray);
-        restart.addActionListener(new java.awt.event.ActionListener() {
+        redo.setText("REDO");
+        redo.setBackground(Color.darkGray);
+        redo.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
-                restart(evt);
+                redo(evt);
             }
         });
 
@@ -220,102 +257,53 @@ public class EightBoard extends javax.swing.JFrame
             .addGroup(layout.createSequentialGroup()
                 .addContainerGap()
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(grid, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addGroup(layout.createSequentialGroup()
-                        .addComponent(tile1, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
+                        .addComponent(restart, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addComponent(tile2, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
+                        .addComponent(controller, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addComponent(tile3, javax.swing.GroupLayout.DEFAULT_SIZE, 92, Short.MAX_VALUE))
+                        .addComponent(flip, javax.swing.GroupLayout.DEFAULT_SIZE, 92, Short.MAX_VALUE))
                     .addGroup(layout.createSequentialGroup()
-                        .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
-                            .addComponent(tile7, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
-                            .addComponent(tile4, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
-                            .addComponent(restart, javax.swing.GroupLayout.PREFERRED_SIZE, 91, Short.MAX_VALUE))
+                        .addComponent(undo, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                            .addComponent(controller, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
-                            .addComponent(tile8, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                            .addComponent(tile5, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                        .addComponent(hint, javax.swing.GroupLayout.DEFAULT_SIZE, 91, Short.MAX_VALUE)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                        .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                            .addComponent(tile6, javax.swing.GroupLayout.DEFAULT_SIZE, 92, Short.MAX_VALUE)
-                            .addComponent(tile9, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                            .addComponent(flip, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))))
+                        .addComponent(redo, javax.swing.GroupLayout.DEFAULT_SIZE, 92, Short.MAX_VALUE))
+                    .addComponent(metrics, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap())
         );
         layout.setVerticalGroup(
             layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
             .addGroup(layout.createSequentialGroup()
                 .addContainerGap()
-                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                    .addComponent(tile3, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile2, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile1, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE))
-                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                    .addComponent(tile4, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile6, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile5, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE))
-                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
-                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                    .addComponent(tile8, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile9, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE)
-                    .addComponent(tile7, javax.swing.GroupLayout.DEFAULT_SIZE, 84, Short.MAX_VALUE))
+                .addComponent(grid, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(restart, javax.swing.GroupLayout.DEFAULT_SIZE, 48, Short.MAX_VALUE)
                     .addComponent(controller, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, 48, Short.MAX_VALUE)
                     .addComponent(flip, javax.swing.GroupLayout.Alignment.TRAILING, javax.swing.GroupLayout.DEFAULT_SIZE, 48, Short.MAX_VALUE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(undo, javax.swing.GroupLayout.DEFAULT_SIZE, 32, Short.MAX_VALUE)
+                    .addComponent(hint, javax.swing.GroupLayout.DEFAULT_SIZE, 32, Short.MAX_VALUE)
+                    .addComponent(redo, javax.swing.GroupLayout.DEFAULT_SIZE, 32, Short.MAX_VALUE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(metrics)
                 .addContainerGap())
         );
 
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
-    private void tile1_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile1_onClick
-        if (!this.controller.getText().equals("START"))
-            tile1.onClick();
-    }//GEN-LAST:event_tile1_onClick
-
-    private void tile3_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile3_onClick
-        if (!this.controller.getText().equals("START"))
-            tile3.onClick();
-    }//GEN-LAST:event_tile3_onClick
-
-    private void tile2_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile2_onClick
-        if (!this.controller.getText().equals("START"))
-            tile2.onClick();
-    }//GEN-LAST:event_tile2_onClick
-
-    private void tile4_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile4_onClick
-        if (!this.controller.getText().equals("START"))
-            tile4.onClick();
-    }//GEN-LAST:event_tile4_onClick
-
-    private void tile5_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile5_onClick
-        if (!this.controller.getText().equals("START"))
-            tile5.onClick();
-    }//GEN-LAST:event_tile5_onClick
-
-    private void tile6_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile6_onClick
-        if (!this.controller.getText().equals("START"))
-            tile6.onClick();
-    }//GEN-LAST:event_tile6_onClick
-
-    private void tile7_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile7_onClick
-        if (!this.controller.getText().equals("START"))
-            tile7.onClick();
-    }//GEN-LAST:event_tile7_onClick
-
-    private void tile8_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile8_onClick
-        if (!this.controller.getText().equals("START"))
-            tile8.onClick();
-    }//GEN-LAST:event_tile8_onClick
-
-    private void tile9_onClick(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tile9_onClick
+    /**
+     * A tile has been clicked: it is moved only after the start of the game
+     * @param tile the tile clicked
+     */
+    private void tile_onClick(EightTile tile) {
         if (!this.controller.getText().equals("START"))
-            tile9.onClick();
-    }//GEN-LAST:event_tile9_onClick
+            tile.onClick();
+    }
 
     /**
      * Disable the "start" button and enable "restart" and "flip";
@@ -331,9 +319,14 @@ public class EightBoard extends javax.swing.JFrame
         // set buttons' background
         flip.setBackground(Color.LIGHT_GRAY);
         restart.setBackground(Color.LIGHT_GRAY);
+        undo.setBackground(Color.LIGHT_GRAY);
+        hint.setBackground(Color.LIGHT_GRAY);
+        redo.setBackground(Color.LIGHT_GRAY);
         
         // remove the label "START"
         controller.setText("");
+        if (painter != null)
+            painter.setEnabled(true);
         
         // generate tiles: start the game!
         this.restart(evt);
@@ -349,8 +342,7 @@ public class EightBoard extends javax.swing.JFrame
         if (this.controller.getText().equals("START"))
             return;
         
-        ArrayList<Integer> layout = newConfiguration();
-        this.firePropertyChange("restart", null, layout);
+        this.setConfiguration(scramble.next());
     }//GEN-LAST:event_restart
 
     private void flip(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_flip
@@ -359,18 +351,56 @@ public class EightBoard extends javax.swing.JFrame
         if (this.controller.getText().equals("START"))
             return;
         
-        try{
-            this.vetos.fireVetoableChange("flip", tile1.getLabel(), tile2.getLabel());
-            
-            // no veto -> flip tile1 and tile2
-            String tmp = tile1.getLabel();
-            tile1.updateLabel(Integer.valueOf(tile2.getLabel()));
-            tile2.updateLabel(Integer.valueOf(tmp));
-        } catch (PropertyVetoException ex) {  } // do nothing
+        // no veto -> the controller fires the flip: the tiles (or the painted grid)
+        // swap the labels in position 1 and 2 on the event
+        bus.requestFlip();
     }//GEN-LAST:event_flip
+
+    /**
+     * Undo the last move or flip, through the controller: the tiles see a normal move
+     * @param evt the "undo" button clicked
+     */
+    private void undo(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_undo
+        if (!this.controller.getText().equals("START"))
+            this.controller.undo();
+    }//GEN-LAST:event_undo
+
+    /**
+     * Ask the hint engine for the next move of an optimal solution: the search runs off the EDT,
+     * the tile to move is highlighted when it ends, unless a move or a restart happened meanwhile
+     * @param evt the "hint" button clicked
+     */
+    private void hint(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_hint
+        if (this.controller.getText().equals("START"))
+            return;
+        hints.request(controller.getBoard(), (ticket, label, position) ->
+            java.awt.EventQueue.invokeLater(() -> {
+                if (!hints.isCurrent(ticket) || label == 0)
+                    return;
+                if (label == EightHint.FLIP)
+                    EightAnimator.shared().play(flip, HINT, t -> 
+                        flip.setBackground(t < 1f ? Color.CYAN : Color.LIGHT_GRAY));
+                else if (tiles != null)
+                    tiles[position-1].highlight();
+                else
+                    painter.highlight(position);
+                hint.setToolTipText(String.format("First hint in %.1f ms, mean %.1f ms", 
+                        hints.getFirstLatency() / 1e6, hints.getMeanLatency() / 1e6));
+            }));
+    }//GEN-LAST:event_hint
+
+    /**
+     * Redo the last move or flip undone, through the controller
+     * @param evt the "redo" button clicked
+     */
+    private void redo(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_redo
+        if (!this.controller.getText().equals("START"))
+            this.controller.redo();
+    }//GEN-LAST:event_redo
   
     /**
      * If a move occurs, the controller passes the information for updating the hole tile;
+     * the board receives it through the bus, this handler serves the controllers wired the old way
      * @param evt an event <"label", movedtile.label, hole.position>
      */
     @Override
@@ -381,26 +411,35 @@ public class EightBoard extends javax.swing.JFrame
         
         int label = (int) evt.getOldValue();
         int tile = (int) evt.getNewValue();
-
-        switch (tile) {
-            case 1: tile1.updateLabel(label); break;
-            case 2: tile2.updateLabel(label); break;
-            case 3: tile3.updateLabel(label); break;
-            case 4: tile4.updateLabel(label); break;
-            case 5: tile5.updateLabel(label); break;
-            case 6: tile6.updateLabel(label); break;
-            case 7: tile7.updateLabel(label); break;
-            case 8: tile8.updateLabel(label); break;
-            case 9: tile9.updateLabel(label); break;
-            default:
-                throw new IllegalArgumentException("Wrong tile index: "+tile);
-        }
+        if (tile < 1 || tile > row_length*row_length)
+            throw new IllegalArgumentException("Wrong tile index: "+tile);
+        if (tiles != null)
+            tiles[tile-1].updateLabel(label);
+        else
+            painter.moved(label, tile);
     }
     
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments:
+     *             "--size n" plays on a board of n x n tiles, "--painted" draws it with a single component;
+     *             the headless modes are started by EightMain, before this class is loaded
      */
     public static void main(String args[]) {
+        int size = 3;
+        boolean paint = false;
+        for (int i=0; i < args.length; i++){
+            if ("--size".equals(args[i]) && i+1 < args.length)
+                size = Integer.parseInt(args[++i]);
+            else if ("--painted".equals(args[i]))
+                paint = true;
+            else{
+                System.err.println("Usage: [--size n] [--painted] | --solve-batch <in> <out> [threads] | --simulate [options]");
+                System.exit(2);
+            }
+        }
+        final int row_length = size;
+        final boolean painted = paint;
+        
         /* Set the Nimbus look and feel */
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
         /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
@@ -428,7 +467,7 @@ public class EightBoard extends javax.swing.JFrame
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
-                new EightBoard().setVisible(true);
+                new EightBoard(row_length, painted).setVisible(true);
             }
         });
     }
@@ -436,18 +475,20 @@ public class EightBoard extends javax.swing.JFrame
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private ap.eightpuzzle.EightController controller;
     private javax.swing.JButton flip;
+    private javax.swing.JPanel grid;
+    private javax.swing.JButton hint;
+    private javax.swing.JLabel metrics;
+    private javax.swing.JButton redo;
     private javax.swing.JButton restart;
-    private ap.eightpuzzle.EightTile tile1;
-    private ap.eightpuzzle.EightTile tile2;
-    private ap.eightpuzzle.EightTile tile3;
-    private ap.eightpuzzle.EightTile tile4;
-    private ap.eightpuzzle.EightTile tile5;
-    private ap.eightpuzzle.EightTile tile6;
-    private ap.eightpuzzle.EightTile tile7;
-    private ap.eightpuzzle.EightTile tile8;
-    private ap.eightpuzzle.EightTile tile9;
+    private javax.swing.JButton undo;
     // End of variables declaration//GEN-END:variables
     
-    // Vetoable listeners for the "flip" (the controller only)
-    private VetoableChangeSupport vetos = new VetoableChangeSupport( this );
+    // Typed events among tiles, controller and board
+    private final EightBus bus = new EightBus();
+    private final int row_length;
+    private final EightTile[] tiles;          // tiles[i] is the tile in position i+1, null if painted
+    private final EightGrid painter;          // the view of the tiles if painted, null otherwise
+    private final EightBeanAdapter beans;
+    private final EightHint hints;            // background search of the next move
+    private final EightScramble scramble;     // generator of the new configurations
 }
@@ -0,0 +1,294 @@
+package ap.eightpuzzle;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import javax.swing.JComponent;
+
+/**
+ * Alternative view of the tiles for large boards: a single component that paints the whole grid,
+ * in place of one EightTile (a JButton) per cell.
+ *
+ * The colors are the ones of EightTile: grey for the hole, green if the tile is in its position,
+ * yellow otherwise, red for half a second when a click is vetoed.
+ *
+ * Design choices:
+ * - The grid is a Listener of the bus, as the tiles: it keeps its own copy of the labels
+ *   (position -> label and label -> position), updated by the moved, restarted and flipped events;
+ * - A click is mapped to a position arithmetically (row and column from the coordinates)
+ *   and requested to the bus as the click of that tile;
+ * - A move repaints only the two cells it touches; paintComponent paints only the cells
+ *   that intersect the clip;
+ * - The text of a label is rendered once in an image, cached until the cells are resized;
+ * - The moved tile slides from its old cell, a vetoed cell flashes red and a hinted one cyan:
+ *   all are effects of the shared EightAnimator, so a new move or veto completes the running one;
+ * - The grid does not react to the clicks while it is disabled (before the start of the game).
+ *
+ * @author marco
+ */
+public class EightGrid extends JComponent implements EightBus.Listener {
+    private static final int GAP = 2;               // pixels between two cells
+    private static final int FLASH = 500;           // milliseconds of red after a veto
+    private static final int SLIDE = 120;           // milliseconds of the slide of a moved tile
+    private static final int HINT = 1000;           // milliseconds of cyan of a hint
+
+    private final int row_length;
+    private final int hole_label;
+    private final int[] cells;                      // position-1 -> label
+    private final int[] where;                      // label-1 -> position-1
+    private transient EightBus bus;
+    private transient BufferedImage[] glyphs;       // label-1 -> rendered text, null if not cached
+    private int glyph_size;                         // side of the cells of the cached glyphs
+    private int flashing = -1;                      // position-1 of the red cell, -1 if none
+    private Color flash_color = Color.RED;          // red for a veto, cyan for a hint
+    private int slide_from, slide_to = -1;          // position-1 of the sliding tile, to = -1 if none
+    private float slide_t;                          // progress of the slide
+    private final Object flash = new Object();      // keys of the effects
+    private final Object slide = new Object();
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightGrid(int row_length){
+        this.row_length = row_length;
+        this.hole_label = row_length*row_length;
+        this.cells = new int[hole_label];
+        this.where = new int[hole_label];
+        for (int p=0; p < hole_label; p++){
+            cells[p] = p+1;
+            where[p] = p;
+        }
+        this.setOpaque(true);
+        this.setBackground(Color.darkGray);
+        this.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+        this.addMouseListener(new MouseAdapter(){
+            @Override
+            public void mousePressed(MouseEvent e){
+                onClick(e.getX(), e.getY());
+            }
+        });
+    }
+
+    /**
+     * Registers the grid as listener of a bus, to which the clicks are requested
+     * @param bus the bus of the board
+     */
+    public void setBus(EightBus bus){
+        if (this.bus != null)
+            this.bus.removeListener(this);
+        this.bus = bus;
+        bus.addListener(this);
+    }
+
+    /**
+     * @param position a position in [1, size]
+     * @return the label of the tile in that position
+     */
+    public int label(int position){
+        return cells[position-1];
+    }
+
+    /**
+     * @param x the abscissa of a point of the grid
+     * @param y the ordinate of a point of the grid
+     * @return the position of the cell that contains the point, 0 if the point is out of the grid
+     */
+    public int positionAt(int x, int y){
+        int side = cellSide();
+        if (side <= 0 || x < 0 || y < 0)
+            return 0;
+        int col = x / side, row = y / side;
+        if (col >= row_length || row >= row_length)
+            return 0;
+        return row*row_length + col + 1;
+    }
+
+    /********** Bus events **********/
+
+    @Override
+    public void moved(int label, int position){
+        int from = where[label-1];
+        cells[position-1] = label;
+        where[label-1] = position-1;
+        cells[from] = hole_label;
+        where[hole_label-1] = from;
+        slides(from, position-1);
+    }
+
+    @Override
+    public void restarted(int[] layout){
+        for (int p=0; p < hole_label; p++){
+            cells[p] = layout[p];
+            where[layout[p]-1] = p;
+        }
+        repaint();
+    }
+
+    @Override
+    public void flipped(){
+        int a = cells[0], b = cells[1];
+        cells[0] = b;
+        cells[1] = a;
+        where[a-1] = 1;
+        where[b-1] = 0;
+        repaintCell(0);
+        repaintCell(1);
+    }
+
+    /********** Painting **********/
+
+    @Override
+    public Dimension getPreferredSize(){
+        if (isPreferredSizeSet())
+            return super.getPreferredSize();
+        int side = Math.max(8, Math.min(90, 900/row_length)) * row_length;
+        return new Dimension(side, side);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g){
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int side = cellSide();
+        if (side <= 0)
+            return;
+        if (glyphs == null || side != glyph_size){
+            glyphs = new BufferedImage[hole_label];
+            glyph_size = side;
+        }
+        int c0 = Math.max(0, clip.x / side), c1 = Math.min(row_length-1, (clip.x+clip.width-1) / side);
+        int r0 = Math.max(0, clip.y / side), r1 = Math.min(row_length-1, (clip.y+clip.height-1) / side);
+        for (int r=r0; r <= r1; r++)
+            for (int c=c0; c <= c1; c++)
+                paintCell(g, r*row_length + c, c*side, r*side, side);
+        
+        // the sliding tile, between its old and its new cell
+        if (slide_to >= 0){
+            int x0 = (slide_from % row_length)*side, y0 = (slide_from / row_length)*side;
+            int x1 = (slide_to % row_length)*side, y1 = (slide_to / row_length)*side;
+            paintTile(g, slide_to, x0 + Math.round((x1-x0)*slide_t), y0 + Math.round((y1-y0)*slide_t), side);
+        }
+    }
+
+    /********** Auxiliary methods **********/
+
+    private void paintCell(Graphics g, int p, int x, int y, int side){
+        if (p == slide_to){
+            // the tile is drawn while sliding: its cell is empty
+            g.setColor(Color.GRAY);
+            g.fillRect(x, y, side-GAP, side-GAP);
+            return;
+        }
+        paintTile(g, p, x, y, side);
+    }
+
+    private void paintTile(Graphics g, int p, int x, int y, int side){
+        int label = cells[p];
+        g.setColor(p == flashing ? flash_color :
+                   label == hole_label ? Color.GRAY :
+                   label == p+1 ? Color.GREEN : Color.YELLOW);
+        g.fillRect(x, y, side-GAP, side-GAP);
+        if (label != hole_label && side > 2*GAP+4)
+            g.drawImage(glyph(label, side), x, y, null);
+    }
+
+    /**
+     * @return the text of a label, rendered in a transparent image of a cell
+     */
+    private BufferedImage glyph(int label, int side){
+        BufferedImage img = glyphs[label-1];
+        if (img != null)
+            return img;
+        img = new BufferedImage(side-GAP, side-GAP, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        String text = Integer.toString(label);
+        Font font = getFont();
+        // shrink the font until the text fits in the cell
+        float size = Math.min(font.getSize2D(), (side-GAP) * 0.5f);
+        FontMetrics fm;
+        do {
+            g.setFont(font.deriveFont(size));
+            fm = g.getFontMetrics();
+            size -= 1f;
+        } while (fm.stringWidth(text) > side-GAP-2 && size > 4f);
+        g.setColor(Color.BLACK);
+        g.drawString(text, (side-GAP - fm.stringWidth(text)) / 2,
+                     (side-GAP - fm.getHeight()) / 2 + fm.getAscent());
+        g.dispose();
+        return glyphs[label-1] = img;
+    }
+
+    private int cellSide(){
+        return Math.min(getWidth(), getHeight()) / row_length;
+    }
+
+    private void repaintCell(int p){
+        int side = cellSide();
+        repaint((p % row_length)*side, (p / row_length)*side, side, side);
+    }
+
+    /**
+     * A cell has been clicked: the move of its tile is requested to the bus;
+     * the view is updated by the moved event, if the request is not vetoed
+     */
+    private void onClick(int x, int y){
+        int position = positionAt(x, y);
+        if (!isEnabled() || bus == null || position == 0)
+            return;
+        if (!bus.requestMove(cells[position-1]))
+            flashes(position-1);
+    }
+
+    /**
+     * Paints a cell cyan for a second, to suggest the move of its tile;
+     * it shares the key of the flash, so a veto or a new hint supersedes it
+     * @param position a position in [1, size]
+     */
+    public void highlight(int position){
+        flashes(position-1, Color.CYAN, HINT);
+    }
+
+    /**
+     * Paints a cell red for half second; a new flash completes the running one
+     */
+    private void flashes(int p){
+        flashes(p, Color.RED, FLASH);
+    }
+
+    private void flashes(int p, Color color, int duration){
+        EightAnimator.shared().play(flash, duration, t -> {
+            flash_color = color;
+            if (flashing >= 0)
+                repaintCell(flashing);
+            flashing = t < 1f ? p : -1;
+            if (flashing >= 0)
+                repaintCell(flashing);
+        });
+    }
+
+    /**
+     * Slides the tile moved from its old cell to the old hole; a new slide completes the running one
+     */
+    private void slides(int from, int to){
+        EightAnimator.shared().play(slide, SLIDE, t -> {
+            slide_from = from;
+            slide_to = t < 1f ? to : -1;
+            slide_t = t;
+            repaintCell(from);
+            repaintCell(to);
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package ap.eightpuzzle;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Entry point of the EightBoard jar: starts the headless modes or the game.
+ *
+ * Design choices:
+ * - This class references no AWT nor Swing type: loading EightBoard (a JFrame) initializes
+ *   the toolkit, so java.awt.headless must be set before EightBoard is touched;
+ * - The batch and the simulation are dispatched here, with the JVM headless;
+ *   any other argument goes to EightBoard.
+ *
+ * Usage: [--size n] [--painted] | --solve-batch in out [threads] | --simulate [options]
+ *
+ * @author marco
+ */
+public final class EightMain {
+
+    private EightMain(){}
+
+    /**
+     * @param args the command line arguments:
+     *             "--solve-batch in out [threads]" solves a file of layouts without the GUI (see EightBatch);
+     *             "--simulate [options]" plays random games headless on the beans (see EightSimulation);
+     *             anything else starts the game (see EightBoard)
+     * @throws IOException if the batch files cannot be read or written
+     * @throws InterruptedException if interrupted while waiting for the simulated games
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String mode = args.length > 0 ? args[0] : "";
+        if (mode.equals("--solve-batch") || mode.equals("--simulate")){
+            System.setProperty("java.awt.headless", "true");
+            String[] options = Arrays.copyOfRange(args, 1, args.length);
+            if (mode.equals("--solve-batch"))
+                EightBatch.main(options);
+            else
+                EightSimulation.main(options);
+            return;
+        }
+        EightBoard.main(args);
+    }
+}
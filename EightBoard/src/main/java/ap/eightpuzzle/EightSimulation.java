@@ -0,0 +1,256 @@
+package ap.eightpuzzle;
+
+import java.awt.GraphicsEnvironment;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Headless simulation: plays random games on the real beans, without a display,
+ * and checks the invariants of the board after every action.
+ *
+ * Each game wires the listener graph of EightBoard: the EightTiles and the EightController
+ * on an EightBus, with an idle EightBeanAdapter; the actions are the ones of the board:
+ * - a click of a random tile (EightTile.onClick), accepted or vetoed by the controller;
+ * - a flip (vetoed unless the hole is at the low-right corner);
+ * - a restart with a random configuration (EightScramble);
+ * - an undo or a redo of the controller;
+ * - a random sequence of moves applied at once (EightController.applyMoves), sometimes with an illegal one.
+ * Invariants: the labels of the tiles are a permutation, the layout of the controller matches them,
+ * and the metrics of the controller match the ones computed from scratch.
+ *
+ * Design choices:
+ * - The JVM runs headless (java.awt.headless), set by EightMain before any AWT class is loaded,
+ *   and the simulation refuses to start otherwise: the tiles belong to no container, so a change
+ *   of their labels neither repaints nor revalidates anything, and the animations end at once;
+ * - In the multi-threaded mode every thread plays its own game, on its own beans and bus:
+ *   the games share nothing, so the throughput scales with the threads;
+ * - The games are seeded (seed + index of the game), so a failure can be replayed.
+ *
+ * Usage: --simulate [--size n] [--actions n] [--threads n] [--seed n] [--check n]
+ *
+ * @author marco
+ */
+public final class EightSimulation {
+    // actions, per thousand
+    private static final int RESTART = 1;
+    private static final int FLIP = RESTART + 30;
+    private static final int UNDO = FLIP + 30;
+    private static final int REDO = UNDO + 15;
+    private static final int APPLY = REDO + 5;
+    private static final int SEQUENCE = 64;         // maximum moves of a sequence
+
+    /**
+     * A game on its own beans
+     */
+    static final class Game {
+        private final int size;
+        private final EightBus bus = new EightBus();
+        private final EightTile[] tiles;
+        private final EightController controller;
+        private final EightMetrics metrics;
+        private final Random random;
+        private final EightScramble scramble;
+        private final SplittableRandom boards;
+        private final int[] labels;
+        private final byte[] sequence = new byte[SEQUENCE];
+        long actions, moves, vetoes, flips, restarts, undos, sequences;
+        String failure;                             // the first invariant broken, null if none
+
+        Game(int row_length, long seed){
+            this.size = row_length*row_length;
+            this.tiles = new EightTiles(row_length, bus, null).getTiles();
+            this.controller = new EightController(row_length);
+            this.controller.setBus(bus);
+            EightBeanAdapter.attach(bus, this, size);
+            this.metrics = new EightMetrics(row_length);
+            this.random = new Random(seed);
+            this.scramble = new EightScramble(row_length);
+            this.boards = new SplittableRandom(seed);
+            this.labels = new int[size];
+            restart();
+        }
+
+        /**
+         * Plays a number of random actions, checking the invariants every check actions
+         * @return false if an invariant has been broken
+         */
+        boolean play(long count, int check){
+            for (long i=0; i < count; i++){
+                int r = random.nextInt(1000);
+                if (r < RESTART)
+                    restart();
+                else if (r < FLIP)
+                    flip();
+                else if (r < UNDO)
+                    undos += controller.undo() ? 1 : 0;
+                else if (r < REDO)
+                    undos += controller.redo() ? 1 : 0;
+                else if (r < APPLY){
+                    if (!apply())
+                        return false;
+                }
+                else
+                    click(random.nextInt(size));
+                actions++;
+                if ((actions % check) == 0 && !check())
+                    return false;
+            }
+            return check();
+        }
+
+        private void click(int p){
+            EightTile tile = tiles[p];
+            boolean hole = label(tile) == size;
+            tile.onClick();
+            if (!hole && label(tile) == size)
+                moves++;
+            else
+                vetoes++;
+        }
+
+        private void flip(){
+            if (bus.requestFlip())
+                flips++;
+        }
+
+        /**
+         * Applies a random walk of the hole, whose last move is sometimes random (and maybe illegal)
+         * @return false if the controller accepted an illegal move or applied a rejected sequence
+         */
+        private boolean apply(){
+            EightLayout board = controller.getBoard();
+            int n = 1 + random.nextInt(SEQUENCE);
+            for (int i=0; i < n; i++){
+                int dir;
+                do dir = random.nextInt(4); while (!board.canMove(dir));
+                board.move(dir);
+                sequence[i] = (byte) dir;
+            }
+            if (random.nextBoolean())
+                sequence[n-1] = (byte) random.nextInt(EightHistory.FLIP+1);
+            board = controller.getBoard();
+            int illegal = controller.applyMoves(sequence, 0, n);
+            if (illegal < 0){
+                sequences++;
+                if (sequence[n-1] == EightHistory.FLIP){
+                    flips++;
+                    moves += n-1;
+                }
+                else
+                    moves += n;
+                return true;
+            }
+            if (illegal != n-1 || !controller.getBoard().toString().equals(board.toString()))
+                return fail("the sequence was rejected at "+illegal+" of "+n+", or partially applied");
+            vetoes++;
+            return true;
+        }
+
+        private void restart(){
+            bus.fireRestarted(scramble.next(boards, labels));
+            restarts++;
+        }
+
+        /**
+         * @return true if the invariants hold, otherwise records the failure
+         */
+        private boolean check(){
+            boolean[] seen = new boolean[size];
+            EightLayout board = controller.getBoard();
+            for (int p=0; p < size; p++){
+                int l = label(tiles[p]);
+                if (l < 1 || l > size || seen[l-1])
+                    return fail("the tiles are not a permutation");
+                seen[l-1] = true;
+                if (board.label(p+1) != l)
+                    return fail("the controller has "+board.label(p+1)+" in position "+(p+1)+", the tile "+l);
+            }
+            metrics.reset(board);
+            if (metrics.getManhattan() != controller.getManhattan() || metrics.getConflicts() != controller.getConflicts()
+                    || metrics.getMisplaced() != controller.getMisplaced() || metrics.getParity() != controller.getParity())
+                return fail("the metrics of the controller are stale");
+            return true;
+        }
+
+        private boolean fail(String message){
+            failure = "action "+actions+": "+message+" "+controller.getBoard();
+            return false;
+        }
+
+        private static int label(EightTile tile){
+            return tile.labelValue();
+        }
+    }
+
+    private EightSimulation(){}
+
+    /**
+     * Command line entry point
+     * @param args the options, see the usage
+     */
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        if (!GraphicsEnvironment.isHeadless()){
+            // the toolkit was initialized before: the animator would run on the worker threads
+            System.err.println("The simulation must start headless: run it through EightMain (the main class of the jar)");
+            System.exit(2);
+        }
+        int side = 3, threads = 1, check = 1;
+        long actions = 1_000_000, seed = 42;
+        for (int i=0; i < args.length; i++){
+            if (i+1 == args.length)
+                usage();
+            switch (args[i]){
+                case "--size":      side = Integer.parseInt(args[++i]); break;
+                case "--actions":   actions = Long.parseLong(args[++i]); break;
+                case "--threads":   threads = Integer.parseInt(args[++i]); break;
+                case "--seed":      seed = Long.parseLong(args[++i]); break;
+                case "--check":     check = Integer.parseInt(args[++i]); break;
+                default:            usage();
+            }
+        }
+
+        Game[] games = new Game[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t=0; t < threads; t++)
+            games[t] = new Game(side, seed+t);
+        long start = System.nanoTime();
+        for (int t=0; t < threads; t++){
+            Game game = games[t];
+            long count = actions;
+            int every = check;
+            workers[t] = new Thread(() -> game.play(count, every), "eight-simulation-"+t);
+            workers[t].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0, moves = 0, vetoes = 0, flips = 0, restarts = 0, undos = 0, sequences = 0;
+        boolean failed = false;
+        for (int t=0; t < threads; t++){
+            Game g = games[t];
+            total += g.actions;
+            moves += g.moves;
+            vetoes += g.vetoes;
+            flips += g.flips;
+            restarts += g.restarts;
+            undos += g.undos;
+            sequences += g.sequences;
+            if (g.failure != null){
+                System.err.println("Game "+t+" (seed "+(seed+t)+") failed at "+g.failure);
+                failed = true;
+            }
+        }
+        System.err.printf("%d games, %d actions: %d moves, %d vetoes, %d flips, %d restarts, %d undo/redo, %d sequences%n",
+                          threads, total, moves, vetoes, flips, restarts, undos, sequences);
+        System.err.printf("%.3f s: %.0f actions/s, %.0f moves/s%n", seconds, total / seconds, moves / seconds);
+        if (failed)
+            System.exit(1);
+    }
+
+    private static void usage(){
+        System.err.println("Usage: --simulate [--size n] [--actions n] [--threads n] [--seed n] [--check n]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,106 @@
+package ap.eightpuzzle;
+
+import javax.swing.JComponent;
+
+/**
+ * The tiles of a board, one EightTile per cell, wired to the bus of the board.
+ *
+ * Design choices:
+ * - The tiles are kept in an array indexed by position, so the old hole is updated in O(1);
+ *   the labels are compared as ints, without the string getter of the bean property;
+ * - A move is applied on the moved event: the old hole takes the label of the moved tile
+ *   and the old cell of that tile, adjacent to the old hole, becomes the hole; the clicked tile
+ *   does it by itself, but a move requested by the controller (undo, redo) has no clicked tile;
+ * - A flip is applied on the flipped event, in batch: the two tiles do not repaint themselves,
+ *   the container repaints the union of their bounds once;
+ * - A sequence of moves applied at once reaches every tile as a restart, without repainting:
+ *   the container repaints once;
+ * - The container is optional: the headless simulation (EightSimulation) drives tiles
+ *   that belong to no component.
+ *
+ * @author marco
+ */
+final class EightTiles implements EightBus.Listener {
+    private final int row_length;
+    private final EightTile[] tiles;              // tiles[i] is the tile in position i+1
+    private final JComponent container;           // null if the tiles are not shown
+
+    /**
+     * Creates the tiles in positional order, registers them and the listener to the bus
+     * @param row_length the number of tiles in a row
+     * @param bus the bus of the board
+     * @param container the component that shows the tiles, null if none
+     */
+    EightTiles(int row_length, EightBus bus, JComponent container){
+        this.row_length = row_length;
+        this.tiles = new EightTile[row_length*row_length];
+        this.container = container;
+        for (int i=0; i < tiles.length; i++){
+            tiles[i] = new EightTile(i+1, tiles.length);
+            if (container != null)
+                container.add(tiles[i]);
+        }
+        
+        // the tiles receive the restart, the listener the moves and the flips
+        for (EightTile tile : tiles)
+            tile.setBus(bus);
+        bus.addListener(this);
+    }
+
+    /**
+     * @return the tiles: the i-th is the tile in position i+1
+     */
+    EightTile[] getTiles(){
+        return tiles;
+    }
+
+    @Override
+    public void moved(int label, int position){
+        tiles[position-1].updateLabel(label);
+        vacate(label, position);
+    }
+
+    @Override
+    public void flipped(){
+        // swap the tiles in position 1 and 2 in batch
+        int tmp = tiles[0].labelValue();
+        tiles[0].applyLabel(tiles[1].labelValue());
+        tiles[1].applyLabel(tmp);
+        if (container != null)
+            container.repaint(tiles[0].getBounds().union(tiles[1].getBounds()));
+    }
+
+    @Override
+    public void applied(int[] layout, int count){
+        // the tiles took the layout as a restart
+        if (container != null)
+            container.repaint();
+    }
+
+    /**
+     * A tile has been moved on the old hole: its old cell, adjacent to the old hole, becomes the hole
+     * @param label the label of the tile moved
+     * @param position the position of the old hole, where the tile is now
+     */
+    private void vacate(int label, int position){
+        int p = position-1, c = p % row_length;
+        if (p >= row_length && vacated(p-row_length, label))
+            return;
+        if (p+row_length < tiles.length && vacated(p+row_length, label))
+            return;
+        if (c > 0 && vacated(p-1, label))
+            return;
+        if (c < row_length-1)
+            vacated(p+1, label);
+    }
+
+    /**
+     * @return true if the tile at index q had the label moved, and it is now the hole
+     */
+    private boolean vacated(int q, int label){
+        if (tiles[q].labelValue() != label)
+            return false;
+        tiles[q].updateLabel(tiles.length);
+        return true;
+    }
+}
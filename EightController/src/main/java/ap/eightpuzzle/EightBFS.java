@@ -0,0 +1,242 @@
+package ap.eightpuzzle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Parallel breadth-first search of a state space whose states are identified by a rank in [0, states),
+ * used to build the distance table and the pattern databases.
+ *
+ * Design choices:
+ * - The search proceeds level by level: the frontier of a level is split among the fork-join
+ *   workers, each one expands its slice into a private chunk and the chunks are concatenated
+ *   in the frontier of the next level; levels are the only synchronization points;
+ * - A state is claimed by setting its bit in a visited bitset with a compare-and-set,
+ *   so exactly one worker records it, without locks;
+ * - Moves that cost nothing (e.g. the hole sliding on a tile outside a pattern) are supported:
+ *   they are expanded again at the same level until the level is closed, and only then
+ *   the states reached by a costly move are claimed for the next level;
+ * - The expansion of a state is delegated to an Expander, which may keep scratch buffers:
+ *   every worker thread gets its own from the supplier.
+ *
+ * @author marco
+ */
+public final class EightBFS {
+    private static final int THRESHOLD = 4096;      // states expanded by a single task
+
+    /**
+     * Expansion of a state: one instance per worker thread
+     */
+    public interface Expander {
+        /**
+         * @param rank the state to expand
+         * @param out buffer for the successors, at least 4 elements:
+         *            a successor reached by a move that costs nothing is written as ~rank
+         * @return the number of successors written
+         */
+        int expand(int rank, int[] out);
+    }
+
+    private final int states;
+    private final ThreadLocal<Expander> expanders;
+    private final ForkJoinPool pool;
+    private final AtomicLongArray visited;
+    private final byte[] depth;
+
+    /**
+     * @param states the number of states
+     * @param expanders supplier of the expanders, invoked once per worker thread
+     * @param pool the workers
+     */
+    public EightBFS(int states, Supplier<Expander> expanders, ForkJoinPool pool){
+        this.states = states;
+        this.expanders = ThreadLocal.withInitial(expanders);
+        this.pool = pool;
+        this.visited = new AtomicLongArray((states+63) >>> 6);
+        this.depth = new byte[states];
+    }
+
+    /**
+     * @param root the rank of the root
+     * @return the depth of each state, -1 if the state is not reachable from the root
+     * @throws IllegalStateException if the depth exceeds 127
+     */
+    public byte[] run(int root){
+        if (root < 0 || root >= states)
+            throw new IllegalArgumentException("Root out of the space: "+root);
+        Arrays.fill(depth, (byte) -1);
+        claim(root);
+        depth[root] = 0;
+        int[] frontier = { root };
+        for (int d=0; frontier.length > 0; d++){
+            if (d == Byte.MAX_VALUE)
+                throw new IllegalStateException("Depth exceeds "+Byte.MAX_VALUE);
+            List<int[]> costly = new ArrayList<>();
+
+            // close the level: expand until no state is reached at no cost
+            for (int[] level = frontier; level.length > 0; ){
+                Chunks c = pool.invoke(new Expansion(level, 0, level.length, (byte) d));
+                level = c.free();
+                costly.addAll(c.costly);
+            }
+
+            // claim the states of the next level
+            int[] candidates = concat(costly);
+            Chunks c = pool.invoke(new Claim(candidates, 0, candidates.length, (byte) (d+1)));
+            frontier = c.free();
+        }
+        return depth;
+    }
+
+    /********** Auxiliary methods **********/
+
+    private boolean claim(int s){
+        int w = s >>> 6;
+        long bit = 1L << s;
+        long old;
+        do {
+            old = visited.get(w);
+            if ((old & bit) != 0)
+                return false;
+        } while (!visited.compareAndSet(w, old, old | bit));
+        return true;
+    }
+
+    private static int[] concat(List<int[]> chunks){
+        int n = 0;
+        for (int[] c : chunks)
+            n += c.length;
+        int[] all = new int[n];
+        n = 0;
+        for (int[] c : chunks){
+            System.arraycopy(c, 0, all, n, c.length);
+            n += c.length;
+        }
+        return all;
+    }
+
+    /**
+     * Output of a task: the states claimed at the current level and the candidates for the next one
+     */
+    private static final class Chunks {
+        final List<int[]> free = new ArrayList<>();
+        final List<int[]> costly = new ArrayList<>();
+
+        Chunks merge(Chunks other){
+            free.addAll(other.free);
+            costly.addAll(other.costly);
+            return this;
+        }
+
+        int[] free(){
+            return concat(free);
+        }
+    }
+
+    /**
+     * Growable int buffer of a single task
+     */
+    private static final class Buffer {
+        int[] data = new int[256];
+        int size;
+
+        void add(int v){
+            if (size == data.length)
+                data = Arrays.copyOf(data, 2*size);
+            data[size++] = v;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /**
+     * Expands a slice of the level
+     */
+    private final class Expansion extends RecursiveTask<Chunks> {
+        private final int[] level;
+        private final int lo, hi;
+        private final byte d;
+
+        Expansion(int[] level, int lo, int hi, byte d){
+            this.level = level;
+            this.lo = lo;
+            this.hi = hi;
+            this.d = d;
+        }
+
+        @Override
+        protected Chunks compute(){
+            if (hi - lo > THRESHOLD){
+                int mid = (lo+hi) >>> 1;
+                Expansion left = new Expansion(level, lo, mid, d);
+                left.fork();
+                Chunks right = new Expansion(level, mid, hi, d).compute();
+                return left.join().merge(right);
+            }
+            Expander expander = expanders.get();
+            int[] out = new int[4];
+            Buffer free = new Buffer(), costly = new Buffer();
+            for (int i=lo; i < hi; i++){
+                int n = expander.expand(level[i], out);
+                for (int j=0; j < n; j++){
+                    int s = out[j];
+                    if (s < 0){
+                        if (claim(~s)){
+                            depth[~s] = d;
+                            free.add(~s);
+                        }
+                    }
+                    else if ((visited.get(s >>> 6) & (1L << s)) == 0)
+                        costly.add(s);
+                }
+            }
+            Chunks c = new Chunks();
+            c.free.add(free.toArray());
+            c.costly.add(costly.toArray());
+            return c;
+        }
+    }
+
+    /**
+     * Claims a slice of the candidates for the next level
+     */
+    private final class Claim extends RecursiveTask<Chunks> {
+        private final int[] candidates;
+        private final int lo, hi;
+        private final byte d;
+
+        Claim(int[] candidates, int lo, int hi, byte d){
+            this.candidates = candidates;
+            this.lo = lo;
+            this.hi = hi;
+            this.d = d;
+        }
+
+        @Override
+        protected Chunks compute(){
+            if (hi - lo > 4*THRESHOLD){
+                int mid = (lo+hi) >>> 1;
+                Claim left = new Claim(candidates, lo, mid, d);
+                left.fork();
+                Chunks right = new Claim(candidates, mid, hi, d).compute();
+                return left.join().merge(right);
+            }
+            Buffer claimed = new Buffer();
+            for (int i=lo; i < hi; i++)
+                if (claim(candidates[i])){
+                    depth[candidates[i]] = d;
+                    claimed.add(candidates[i]);
+                }
+            Chunks c = new Chunks();
+            c.free.add(claimed.toArray());
+            return c;
+        }
+    }
+}
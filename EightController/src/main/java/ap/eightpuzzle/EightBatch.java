@@ -0,0 +1,318 @@
+package ap.eightpuzzle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Headless batch mode: solves a file of boards, one per line, and writes one solution per line.
+ *
+ * Input: a positional layout per line, as generated by the board (the i-th number is the label
+ * of the (i+1)-th tile), with any separator, e.g. "[3, 1, 2, 4, 5, 6, 7, 8, 9]";
+ * the side of each board is given by the number of labels (4, 9, 16, ...).
+ * Output, on the same line number:
+ * - "n moves": the optimal number of moves and the directions of the hole (U, D, L, R);
+ * - "unsolvable": the board cannot be sorted without flipping;
+ * - "invalid": the line is not a permutation of [1, n*n], or its side is not from 2 to MAX_SIDE (4):
+ *   beyond the 15 version the estimate is the Manhattan distance only, and an optimal solution of
+ *   a random board would take hours, stalling every line after it (the output is in input order).
+ *
+ * Design choices:
+ * - The input is streamed: it is read in chunks of lines, each chunk is solved by a task
+ *   of a bounded fork-join pool (work stealing balances hard and easy chunks);
+ * - The solved chunks are queued in input order in a bounded queue and written by the caller:
+ *   when the writer lags behind, the reader blocks on the queue (backpressure),
+ *   so the memory is bounded by the queue whatever the size of the input;
+ * - Every worker thread owns its solvers: A* (EightSolver) up to the 8 version,
+ *   IDA* (EightIDASolver) for the 15 version;
+ * - The reader always ends the queue, even if it fails (the failure is thrown by solve),
+ *   so the writer never waits for a chunk that will not come;
+ * - The solutions are shared by the workers through an EightCache per side,
+ *   so repeated (or mirrored) boards are solved once; the cheapest to solve again are evicted
+ *   (the boards that cannot be sorted skip the cache: a parity check answers them).
+ *
+ * @author marco
+ */
+public final class EightBatch {
+    private static final int CHUNK = 1024;          // lines solved by a single task
+    private static final int MAX_SIDE = 4;
+    private static final char[] DIRECTIONS = { 'U', 'D', 'L', 'R' };
+    private static final int CACHE_ENTRIES = 1 << 18;   // boards cached, per side
+    private static final long CACHE_BYTES = 64L << 20;  // memory of the cache, per side
+
+    private final ForkJoinPool pool;
+    private final int depth;                        // chunks in flight
+    private final ThreadLocal<Solvers> solvers = ThreadLocal.withInitial(Solvers::new);
+    private final EightCache[] caches = new EightCache[MAX_SIDE+1];  // side -> solutions
+
+    /**
+     * @param threads the number of worker threads
+     */
+    public EightBatch(int threads){
+        this.pool = new ForkJoinPool(threads);
+        this.depth = 2*threads;
+        for (int side=2; side < caches.length; side++)
+            caches[side] = new EightCache(side, CACHE_ENTRIES, CACHE_BYTES, EightCache.Eviction.COST);
+    }
+
+    /**
+     * Command line entry point: EightBatch in out [threads]
+     * @param args the input file, the output file and optionally the number of threads
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3){
+            System.err.println("Usage: --solve-batch <in> <out> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        EightBatch batch = new EightBatch(threads);
+        long start = System.nanoTime();
+        long n;
+        try {
+            n = batch.solve(Paths.get(args[0]), Paths.get(args[1]));
+        }
+        finally{
+            batch.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d instances in %.3f s: %.0f instances/s%n", n, seconds, n / seconds);
+        System.err.printf("cache: %d hits, %d misses%n", batch.getHits(), batch.getMisses());
+    }
+
+    /**
+     * Solves every board of a file
+     * @param in the input file
+     * @param out the output file, replaced if it exists
+     * @return the number of lines processed
+     * @throws IOException if a file cannot be read or written
+     */
+    public long solve(Path in, Path out) throws IOException {
+        BlockingQueue<ForkJoinTask<String>> queue = new ArrayBlockingQueue<>(depth);
+        ForkJoinTask<String> end = ForkJoinTask.adapt(() -> null);
+        Throwable[] failure = new Throwable[1];
+        long[] lines = new long[1];
+
+        Thread reader = new Thread(() -> {
+            try {
+                read(in, queue, lines);
+            }
+            catch (InterruptedException e){
+                // the writer failed: no one waits for the end
+                return;
+            }
+            catch (Throwable e){
+                // e.g. an unreadable file, a rejected chunk, a line too long for the heap
+                failure[0] = e;
+            }
+            try {
+                queue.put(end);
+            }
+            catch (InterruptedException e){
+                // the writer failed
+            }
+        }, "EightBatch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try (BufferedWriter w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)){
+            for (ForkJoinTask<String> t; (t = queue.take()) != end; )
+                w.write(t.join());
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch interrupted");
+        }
+        finally{
+            reader.interrupt();
+        }
+        try {
+            reader.join();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        Throwable f = failure[0];
+        if (f instanceof IOException)
+            throw (IOException) f;
+        if (f instanceof RuntimeException)
+            throw (RuntimeException) f;
+        if (f instanceof Error)
+            throw (Error) f;
+        return lines[0];
+    }
+
+    /**
+     * @return the boards answered by the caches
+     */
+    public long getHits(){
+        long n = 0;
+        for (int side=2; side < caches.length; side++)
+            n += caches[side].getHits();
+        return n;
+    }
+
+    /**
+     * @return the boards that could be cached, but were solved
+     */
+    public long getMisses(){
+        long n = 0;
+        for (int side=2; side < caches.length; side++)
+            n += caches[side].getMisses();
+        return n;
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown(){
+        pool.shutdown();
+    }
+
+    /**
+     * Solves a single line
+     * @param line a positional layout
+     * @return the line of the output, without the line terminator
+     */
+    public String solve(String line){
+        int[] layout = parse(line);
+        int row_length = (int) Math.round(Math.sqrt(layout.length));
+        if (row_length < 2 || row_length > MAX_SIDE || row_length*row_length != layout.length || !isPermutation(layout))
+            return "invalid";
+        byte[] moves = solve(layout, row_length);
+        if (moves == null)
+            return "unsolvable";
+        StringBuilder sb = new StringBuilder(moves.length+4).append(moves.length);
+        if (moves.length > 0)
+            sb.append(' ');
+        for (byte m : moves)
+            sb.append(DIRECTIONS[m]);
+        return sb.toString();
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * Reads the lines of a file in chunks, and queues the task that solves each chunk
+     */
+    private void read(Path in, BlockingQueue<ForkJoinTask<String>> queue, long[] lines)
+            throws IOException, InterruptedException {
+        try (BufferedReader r = Files.newBufferedReader(in, StandardCharsets.UTF_8)){
+            String[] chunk = new String[CHUNK];
+            int n = 0;
+            for (String line; (line = r.readLine()) != null; ){
+                chunk[n++] = line;
+                lines[0]++;
+                if (n == CHUNK){
+                    queue.put(submit(chunk, n));
+                    chunk = new String[CHUNK];
+                    n = 0;
+                }
+            }
+            if (n > 0)
+                queue.put(submit(chunk, n));
+        }
+    }
+
+    /**
+     * @return the optimal moves of a valid board, from the cache if possible; null if unsolvable
+     */
+    private byte[] solve(int[] layout, int row_length){
+        Solvers s = solvers.get();
+        EightCache cache = row_length < caches.length ? caches[row_length] : null;
+        if (cache == null || !isSolvable(layout, row_length))
+            return s.solve(layout, row_length);
+        byte[] moves = cache.get(layout);
+        if (moves != null)
+            return moves;
+        moves = s.solve(layout, row_length);
+        if (moves != null)
+            cache.put(layout, moves, s.expanded);
+        return moves;
+    }
+
+    private ForkJoinTask<String> submit(String[] chunk, int n){
+        return pool.submit(() -> {
+            StringBuilder sb = new StringBuilder(n*32);
+            for (int i=0; i < n; i++)
+                sb.append(solve(chunk[i])).append('\n');
+            return sb.toString();
+        });
+    }
+
+    /**
+     * @return the numbers of a line, whatever the separators
+     */
+    private static int[] parse(String line){
+        int n = 0;
+        int[] a = new int[16];
+        for (int i=0; i < line.length(); ){
+            char c = line.charAt(i);
+            if (c < '0' || c > '9'){
+                i++;
+                continue;
+            }
+            int v = 0;
+            for (; i < line.length() && (c = line.charAt(i)) >= '0' && c <= '9'; i++)
+                v = Math.min(10*v + (c - '0'), 1 << 20);
+            if (n == a.length)
+                a = Arrays.copyOf(a, 2*n);
+            a[n++] = v;
+        }
+        return Arrays.copyOf(a, n);
+    }
+
+    /**
+     * @return true if a valid board can be sorted without flipping
+     */
+    private static boolean isSolvable(int[] layout, int row_length){
+        int[] cells = new int[layout.length];
+        for (int p=0; p < cells.length; p++)
+            cells[p] = layout[p]-1;
+        return EightLayout.isSolvable(cells, row_length);
+    }
+
+    private static boolean isPermutation(int[] layout){
+        boolean[] seen = new boolean[layout.length];
+        for (int l : layout){
+            if (l < 1 || l > layout.length || seen[l-1])
+                return false;
+            seen[l-1] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Solvers of a worker thread, by side of the board
+     */
+    private static final class Solvers {
+        private final EightSolver[] astar = new EightSolver[4];
+        private final EightIDASolver[] ida = new EightIDASolver[MAX_SIDE+1];
+        long expanded;                              // nodes expanded by the last search
+
+        byte[] solve(int[] layout, int row_length){
+            if (row_length <= 3){
+                if (astar[row_length] == null)
+                    astar[row_length] = new EightSolver(row_length);
+                byte[] moves = astar[row_length].solve(layout);
+                expanded = astar[row_length].getExpanded();
+                return moves;
+            }
+            if (ida[row_length] == null)
+                ida[row_length] = new EightIDASolver(row_length);
+            byte[] moves = ida[row_length].solve(layout);
+            expanded = ida[row_length].getExpanded();
+            return moves;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ap.eightpuzzle;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
+import java.beans.PropertyChangeSupport;
+import java.beans.PropertyVetoException;
+import java.beans.VetoableChangeListener;
+import java.beans.VetoableChangeSupport;
+import java.util.ArrayList;
+
+/**
+ * Optional adapter from the typed events of EightBus to the bean events,
+ * for the listeners written against the PropertyChangeEvents of the assignment.
+ *
+ * Events, with the same names and values of the beans:
+ * - <"label", moved label, hole label>, constrained: a move requested by a tile;
+ * - <"flip", null, null>, constrained: a flip requested by the board;
+ * - <"label", moved label, old hole position>: a tile has been moved;
+ * - <"restart", null, ArrayList layout>: the board has been restarted;
+ *   a sequence of moves applied at once (EightController.applyMoves) is notified as a restart;
+ * - <"flip", null, null>: the board has been flipped.
+ *
+ * Design choices:
+ * - The adapter is registered on the bus as any other listener and vetoer;
+ * - The events are built only if some bean listener is registered,
+ *   so an idle adapter costs nothing on the hot path.
+ *
+ * @author marco
+ */
+public final class EightBeanAdapter implements EightBus.Listener, EightBus.Vetoer {
+    private final Object source;
+    private final int hole_label;
+    private final PropertyChangeSupport changes;
+    private final VetoableChangeSupport vetos;
+
+    /**
+     * @param source the source of the bean events
+     * @param hole_label the label of the hole
+     */
+    public EightBeanAdapter(Object source, int hole_label){
+        this.source = source;
+        this.hole_label = hole_label;
+        this.changes = new PropertyChangeSupport(source);
+        this.vetos = new VetoableChangeSupport(source);
+    }
+
+    /**
+     * Creates an adapter and registers it on a bus
+     * @param bus the bus to adapt
+     * @param source the source of the bean events
+     * @param hole_label the label of the hole
+     * @return the adapter
+     */
+    public static EightBeanAdapter attach(EightBus bus, Object source, int hole_label){
+        EightBeanAdapter a = new EightBeanAdapter(source, hole_label);
+        bus.addListener(a);
+        bus.addVetoer(a);
+        return a;
+    }
+
+    /********** Bean listeners **********/
+
+    public void addPropertyChangeListener(PropertyChangeListener l){
+        changes.addPropertyChangeListener(l);
+    }
+
+    public void removePropertyChangeListener(PropertyChangeListener l){
+        changes.removePropertyChangeListener(l);
+    }
+
+    public void addVetoableChangeListener(VetoableChangeListener l){
+        vetos.addVetoableChangeListener(l);
+    }
+
+    public void removeVetoableChangeListener(VetoableChangeListener l){
+        vetos.removeVetoableChangeListener(l);
+    }
+
+    /********** Bus events **********/
+
+    @Override
+    public boolean vetoMove(int label){
+        return vetoed("label", label, hole_label);
+    }
+
+    @Override
+    public boolean vetoFlip(){
+        return vetoed("flip", null, null);
+    }
+
+    @Override
+    public void moved(int label, int position){
+        // fired even if label == position, as the controller does
+        if (changes.hasListeners("label"))
+            fire(new PropertyChangeEvent(source, "label", label, position));
+    }
+
+    @Override
+    public void restarted(int[] layout){
+        if (!changes.hasListeners("restart"))
+            return;
+        ArrayList<Integer> list = new ArrayList<>(layout.length);
+        for (int l : layout)
+            list.add(l);
+        fire(new PropertyChangeEvent(source, "restart", null, list));
+    }
+
+    @Override
+    public void flipped(){
+        if (changes.hasListeners("flip"))
+            fire(new PropertyChangeEvent(source, "flip", null, null));
+    }
+
+    /********** Auxiliary methods **********/
+
+    private boolean vetoed(String property, Object oldValue, Object newValue){
+        if (!vetos.hasListeners(property))
+            return false;
+        try {
+            vetos.fireVetoableChange(new PropertyChangeEvent(source, property, oldValue, newValue));
+            return false;
+        }
+        catch (PropertyVetoException e){
+            return true;
+        }
+    }
+
+    /**
+     * Fires an event even if its old and new values are equal, unlike PropertyChangeSupport
+     */
+    private void fire(PropertyChangeEvent evt){
+        for (PropertyChangeListener l : changes.getPropertyChangeListeners())
+            if (!(l instanceof PropertyChangeListenerProxy)
+                    || ((PropertyChangeListenerProxy) l).getPropertyName().equals(evt.getPropertyName()))
+                l.propertyChange(evt);
+    }
+}
@@ -0,0 +1,223 @@
+package ap.eightpuzzle;
+
+import java.util.Arrays;
+
+/**
+ * Typed event bus shared by the tiles, the controller and the board,
+ * in place of the PropertyChangeEvents of the beans.
+ *
+ * Events:
+ * - a move is requested by a tile (constrained: a Vetoer may reject it);
+ * - a flip is requested by the board (constrained);
+ * - a tile has been moved on the old hole;
+ * - the tiles in position 1 and 2 have been swapped;
+ * - the board has been restarted with a new layout;
+ * - a sequence of moves has been applied at once (EightController.applyMoves).
+ *
+ * Design choices:
+ * - The callbacks take primitive values, so firing an event neither boxes nor allocates;
+ * - A veto is a boolean result instead of a PropertyVetoException, so rejecting a click
+ *   costs no exception (and no stack trace);
+ * - The vetoers only vote; a request is applied in a second phase, after all of them accepted it,
+ *   so a late veto never finds the move already applied and notified;
+ * - The listeners are kept in copy-on-write arrays: registering a listener copies the array,
+ *   firing an event iterates over the current one without copying nor locking;
+ * - Listener methods have empty defaults, so a component implements only what it handles;
+ * - The bean events are still available through EightBeanAdapter, registered as any other listener.
+ *
+ * @author marco
+ */
+public final class EightBus {
+
+    /**
+     * Listener of the events that already happened
+     */
+    public interface Listener {
+        /**
+         * A tile has been moved on the old hole
+         * @param label the label of the tile moved
+         * @param position the position of the old hole, where the tile is now
+         */
+        default void moved(int label, int position){}
+
+        /**
+         * The board has been restarted
+         * @param layout positional layout: the i-th element is the label of the (i+1)-th tile;
+         *               it must not be modified nor retained
+         */
+        default void restarted(int[] layout){}
+
+        /**
+         * The tiles in position 1 and 2 have been swapped
+         */
+        default void flipped(){}
+
+        /**
+         * A sequence of moves and flips has been applied at once; by default the listener
+         * takes the new layout as a restart
+         * @param layout positional layout after the sequence, as for restarted;
+         *               it must not be modified nor retained
+         * @param count the number of moves and flips applied
+         */
+        default void applied(int[] layout, int count){
+            restarted(layout);
+        }
+    }
+
+    /**
+     * Listener of the requests, that can reject them.
+     * A request has two phases, as for the VetoableChangeSupport of the beans:
+     * first every vetoer is asked (vetoMove, vetoFlip), without changing anything;
+     * then, if no one rejected it, every vetoer commits it (commitMove, commitFlip),
+     * otherwise every vetoer is told that it has been rejected (rejectMove, rejectFlip)
+     */
+    public interface Vetoer {
+        /**
+         * @param label the label of the tile clicked
+         * @return true to reject the move; the vetoer must not change its state
+         */
+        default boolean vetoMove(int label){ return false; }
+
+        /**
+         * @return true to reject the flip; the vetoer must not change its state
+         */
+        default boolean vetoFlip(){ return false; }
+
+        /**
+         * No vetoer rejected the move: apply it
+         * @param label the label of the tile clicked
+         */
+        default void commitMove(int label){}
+
+        /**
+         * No vetoer rejected the flip: apply it
+         */
+        default void commitFlip(){}
+
+        /**
+         * Some vetoer rejected the move
+         * @param label the label of the tile clicked
+         */
+        default void rejectMove(int label){}
+
+        /**
+         * Some vetoer rejected the flip
+         */
+        default void rejectFlip(){}
+    }
+
+    private static final Listener[] NO_LISTENERS = {};
+    private static final Vetoer[] NO_VETOERS = {};
+
+    private volatile Listener[] listeners = NO_LISTENERS;
+    private volatile Vetoer[] vetoers = NO_VETOERS;
+
+    /********** Registration **********/
+
+    public synchronized void addListener(Listener l){
+        Listener[] a = Arrays.copyOf(listeners, listeners.length+1);
+        a[a.length-1] = l;
+        this.listeners = a;
+    }
+
+    public synchronized void removeListener(Listener l){
+        this.listeners = remove(listeners, l);
+    }
+
+    public synchronized void addVetoer(Vetoer v){
+        Vetoer[] a = Arrays.copyOf(vetoers, vetoers.length+1);
+        a[a.length-1] = v;
+        this.vetoers = a;
+    }
+
+    public synchronized void removeVetoer(Vetoer v){
+        this.vetoers = remove(vetoers, v);
+    }
+
+    /********** Requests **********/
+
+    /**
+     * Asks the vetoers whether a tile can be moved on the hole, stopping at the first veto;
+     * then commits the move to every vetoer, or tells them it has been rejected
+     * @param label the label of the tile clicked
+     * @return true if no vetoer rejected the move
+     */
+    public boolean requestMove(int label){
+        Vetoer[] a = vetoers;
+        for (Vetoer v : a)
+            if (v.vetoMove(label)){
+                for (Vetoer w : a)
+                    w.rejectMove(label);
+                return false;
+            }
+        for (Vetoer v : a)
+            v.commitMove(label);
+        return true;
+    }
+
+    /**
+     * Asks the vetoers whether the tiles in position 1 and 2 can be swapped, stopping at the first veto;
+     * then commits the flip to every vetoer, or tells them it has been rejected
+     * @return true if no vetoer rejected the flip
+     */
+    public boolean requestFlip(){
+        Vetoer[] a = vetoers;
+        for (Vetoer v : a)
+            if (v.vetoFlip()){
+                for (Vetoer w : a)
+                    w.rejectFlip();
+                return false;
+            }
+        for (Vetoer v : a)
+            v.commitFlip();
+        return true;
+    }
+
+    /********** Events **********/
+
+    /**
+     * @param label the label of the tile moved
+     * @param position the position of the old hole, where the tile is now
+     */
+    public void fireMoved(int label, int position){
+        for (Listener l : listeners)
+            l.moved(label, position);
+    }
+
+    /**
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     */
+    public void fireRestarted(int[] layout){
+        for (Listener l : listeners)
+            l.restarted(layout);
+    }
+
+    public void fireFlipped(){
+        for (Listener l : listeners)
+            l.flipped();
+    }
+
+    /**
+     * @param layout positional layout after the sequence: the i-th element is the label of the (i+1)-th tile
+     * @param count the number of moves and flips applied
+     */
+    public void fireApplied(int[] layout, int count){
+        for (Listener l : listeners)
+            l.applied(layout, count);
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return a copy of a without the first occurrence of x, or a itself if x does not occur
+     */
+    private static <T> T[] remove(T[] a, T x){
+        for (int i=0; i < a.length; i++)
+            if (a[i] == x){
+                T[] b = Arrays.copyOf(a, a.length-1);
+                System.arraycopy(a, i+1, b, i, a.length-1-i);
+                return b;
+            }
+        return a;
+    }
+}
@@ -0,0 +1,306 @@
+package ap.eightpuzzle;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of solutions, shared by the solver threads: packed board -> optimal moves.
+ *
+ * Design choices:
+ * - The key is the packed board (up to 16 cells, i.e. up to the 15 version); larger boards are not cached;
+ * - The only reflection that keeps the sorted board is the one across the main diagonal:
+ *   a board and its transpose (positions and labels transposed) share an entry, the smaller of the two,
+ *   and the moves of the other are mapped back (UP <-> LEFT, DOWN <-> RIGHT, i.e. dir^2).
+ *   A plan with a flip has no mirror (the flip swaps the first two cells of a row, not of a column),
+ *   so the boards that cannot be sorted are stored as they are;
+ * - The entries are split by hash among segments, each one a LinkedHashMap in access order
+ *   guarded by its own lock: threads on different segments never contend, and there is no global lock;
+ * - Each segment holds its share of the limits, in entries and in bytes (the moves plus ENTRY bytes
+ *   of overhead); beyond them it evicts the least recently used entry (LRU) or, among the SAMPLE
+ *   least recently used, the cheapest to recompute (COST: nodes expanded by the search);
+ * - Hits, misses and evictions are counted by LongAdders, so counting costs no contention;
+ * - The stored moves are never exposed: get returns a copy.
+ *
+ * @author marco
+ */
+public final class EightCache {
+    static final int ENTRY = 96;                    // bytes of an entry, besides its moves
+    static final int SAMPLE = 8;                    // entries examined by a COST eviction
+
+    /**
+     * Choice of the entry to evict
+     */
+    public enum Eviction {
+        /** the least recently used entry */
+        LRU,
+        /** among the least recently used entries, the one whose search expanded the fewest nodes */
+        COST
+    }
+
+    private final int row_length;
+    private final int size;
+    private final int[] transpose;                  // position -> transposed position
+    private final Eviction eviction;
+    private final Segment[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param row_length the number of tiles in a row, up to 4
+     * @param max_entries the maximum number of boards cached
+     * @param max_bytes the maximum memory of the entries, in bytes
+     * @param eviction the choice of the entry to evict
+     */
+    public EightCache(int row_length, int max_entries, long max_bytes, Eviction eviction){
+        if (row_length < 2 || row_length*row_length > EightLayout.MAX_SIZE)
+            throw new IllegalArgumentException("Unsupported board of side "+row_length);
+        if (max_entries < 1 || max_bytes < 1)
+            throw new IllegalArgumentException("Wrong limits: "+max_entries+" entries, "+max_bytes+" bytes");
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.eviction = eviction;
+        this.transpose = new int[size];
+        for (int p=0; p < size; p++)
+            transpose[p] = (p % row_length)*row_length + p / row_length;
+
+        // a few segments per core, each large enough to keep an order of recency
+        int n = 1, cores = Runtime.getRuntime().availableProcessors();
+        while (n < 4*cores && n < 256 && max_entries / (2*n) >= 16)
+            n <<= 1;
+        this.segments = new Segment[n];
+        for (int i=0; i < n; i++)
+            segments[i] = new Segment(Math.max(1, max_entries / n), Math.max(1, max_bytes / n));
+        this.mask = n-1;
+    }
+
+    /**
+     * @return the number of tiles in a row
+     */
+    public int getRowLength(){
+        return row_length;
+    }
+
+    /********** Lookups **********/
+
+    /**
+     * @param board the board to sort
+     * @return a copy of the moves cached for the board (or its mirror), null if none
+     */
+    public byte[] get(EightLayout board){
+        check(board);
+        return get(board.getPacked());
+    }
+
+    /**
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @return a copy of the moves cached for the board (or its mirror), null if none
+     */
+    public byte[] get(int[] layout){
+        return get(pack(layout));
+    }
+
+    /**
+     * Caches the solution of a board, evicting other entries if needed
+     * @param board the board
+     * @param path its optimal moves (directions, or EightHistory.FLIP); copied
+     * @param cost the cost of computing them again, e.g. the nodes expanded by the search
+     */
+    public void put(EightLayout board, byte[] path, long cost){
+        check(board);
+        put(board.getPacked(), path, cost);
+    }
+
+    /**
+     * Caches the solution of a board, evicting other entries if needed
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @param path its optimal moves (directions, or EightHistory.FLIP); copied
+     * @param cost the cost of computing them again, e.g. the nodes expanded by the search
+     */
+    public void put(int[] layout, byte[] path, long cost){
+        put(pack(layout), path, cost);
+    }
+
+    /********** Statistics **********/
+
+    /**
+     * @return the lookups answered by the cache
+     */
+    public long getHits(){
+        return hits.sum();
+    }
+
+    /**
+     * @return the lookups not answered by the cache
+     */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * @return the entries evicted to respect the limits
+     */
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of boards cached
+     */
+    public int size(){
+        int n = 0;
+        for (Segment s : segments)
+            synchronized (s){
+                n += s.size();
+            }
+        return n;
+    }
+
+    /**
+     * @return the memory of the entries, in bytes (see ENTRY)
+     */
+    public long bytes(){
+        long n = 0;
+        for (Segment s : segments)
+            synchronized (s){
+                n += s.bytes;
+            }
+        return n;
+    }
+
+    /**
+     * Drops every entry; the counters are kept
+     */
+    public void clear(){
+        for (Segment s : segments)
+            synchronized (s){
+                s.clear();
+                s.bytes = 0;
+            }
+    }
+
+    /********** Auxiliary methods **********/
+
+    private byte[] get(long cells){
+        long key = canonical(cells);
+        Segment s = segment(key);
+        Entry e;
+        synchronized (s){
+            e = s.get(key);
+        }
+        if (e == null){
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        byte[] path = e.path.clone();
+        if (key != cells)
+            for (int i=0; i < path.length; i++)
+                path[i] ^= 2;
+        return path;
+    }
+
+    private void put(long cells, byte[] path, long cost){
+        long key = canonical(cells);
+        byte[] moves = path.clone();
+        if (key != cells)
+            for (int i=0; i < moves.length; i++)
+                moves[i] ^= 2;
+        Entry e = new Entry(moves, cost);
+        Segment s = segment(key);
+        int evicted = 0;
+        synchronized (s){
+            Entry old = s.put(key, e);
+            s.bytes += e.bytes() - (old != null ? old.bytes() : 0);
+            while (s.size() > 1 && (s.size() > s.max_entries || s.bytes > s.max_bytes)){
+                s.evict(eviction);
+                evicted++;
+            }
+        }
+        if (evicted > 0)
+            evictions.add(evicted);
+    }
+
+    /**
+     * @return the key of a board: the smaller of the board and its transpose, if it can be sorted
+     */
+    private long canonical(long cells){
+        if (!EightLayout.isSolvable(cells, row_length))
+            return cells;
+        long t = 0;
+        for (int p=0; p < size; p++)
+            t |= (long) transpose[EightLayout.nibble(cells, p)] << (transpose[p] << 2);
+        return Math.min(cells, t);
+    }
+
+    private Segment segment(long key){
+        int h = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    private void check(EightLayout board){
+        if (board.getRowLength() != row_length)
+            throw new IllegalArgumentException("Wrong board side: "+board.getRowLength());
+    }
+
+    private long pack(int[] layout){
+        if (layout.length != size)
+            throw new IllegalArgumentException("Wrong layout size: "+layout.length);
+        long cells = 0;
+        for (int p=0; p < size; p++)
+            cells |= (long) (layout[p]-1) << (p << 2);
+        return cells;
+    }
+
+    /**
+     * Moves of a board, in the frame of its key, and the cost of computing them
+     */
+    private static final class Entry {
+        final byte[] path;
+        final long cost;
+
+        Entry(byte[] path, long cost){
+            this.path = path;
+            this.cost = cost;
+        }
+
+        long bytes(){
+            return ENTRY + path.length;
+        }
+    }
+
+    /**
+     * A share of the entries, in access order, guarded by its own monitor
+     */
+    private static final class Segment extends LinkedHashMap<Long, Entry> {
+        private static final long serialVersionUID = 1L;
+        final int max_entries;
+        final long max_bytes;
+        long bytes;
+
+        Segment(int max_entries, long max_bytes){
+            super(16, 0.75f, true);
+            this.max_entries = max_entries;
+            this.max_bytes = max_bytes;
+        }
+
+        /**
+         * Removes an entry: the eldest or, among the SAMPLE eldest, the cheapest
+         */
+        void evict(Eviction eviction){
+            Iterator<Map.Entry<Long, Entry>> it = entrySet().iterator();
+            Map.Entry<Long, Entry> victim = it.next();
+            if (eviction == Eviction.COST)
+                for (int i=1; i < SAMPLE && it.hasNext(); i++){
+                    Map.Entry<Long, Entry> e = it.next();
+                    if (e.getValue().cost < victim.getValue().cost)
+                        victim = e;
+                }
+            bytes -= victim.getValue().bytes();
+            remove(victim.getKey());
+        }
+    }
+}
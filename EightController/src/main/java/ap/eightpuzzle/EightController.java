@@ -2,13 +2,12 @@ package ap.eightpuzzle;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
 import java.beans.PropertyChangeSupport;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
 import java.io.Serializable;
-import java.util.HashMap;
 import javax.swing.JButton;
-import static java.lang.Math.sqrt;
 import java.util.ArrayList;
 
 /**
@@ -28,7 +27,27 @@ import java.util.ArrayList;
  * of the board to implement correctly the above veto policy.
  * 
  * Design choices:
- * - Controller maintains an inner map that represents the initial layout, updated at restart
+ * - Controller maintains an inner EightLayout that represents the current layout, updated at restart;
+ *   the layout packs the board in primitive longs (int arrays beyond 16 cells), so checking 
+ *   and applying a move neither boxes nor hashes anything;
+ *   the side of the board is a constructor parameter (3 for the bean constructor);
+ * - When wired to an EightBus (setBus), the controller is a typed Vetoer and Listener of the bus:
+ *   a move is checked and applied without PropertyChangeEvents, boxing nor exceptions;
+ *   it is checked in the veto phase of the request and applied (and notified, as moved or flipped)
+ *   only in its commit phase, after every other vetoer accepted it;
+ *   the bean events below are still supported, for the tiles and boards wired the old way;
+ * - Every change of the layout (move, flip, restart) goes through a single method,
+ *   which also records it in the EightJournal, if any (setJournal), and in the EightHistory;
+ * - A sequence of moves (applyMoves) is validated as a whole on the position of the hole only,
+ *   then applied in a tight loop without events: the listeners receive a single "applied" event
+ *   with the final layout, and the metrics are fired once;
+ * - Undo and redo request the inverse (or the same) move to the bus, as a tile click does:
+ *   the tiles, the board and the layout are updated by the normal move path, and the history
+ *   keeps 2 bits per move instead of snapshots of the board;
+ * - The distance of the board from the sorted one (Manhattan distance, linear conflicts,
+ *   misplaced tiles, parity of the inversions) is kept by an EightMetrics, updated by each change
+ *   of the layout in O(row_length) instead of a scan of the board; the metrics are bound properties,
+ *   fired only when they change and only if someone listens to them;
  * - Unlike for EightTile, the PropertyChangeSupport list is overriden:
  *   The controller fires an event to the listener board when a tile is correctly moved 
  *   (it behaves as an event adaptor) passing the position of the hole and the label to assign to it
@@ -38,6 +57,8 @@ import java.util.ArrayList;
  *     
  * Event source:
  * - a tile is *correctly* moved and the hole label has to be update
+ * - the metrics changed ("manhattan", "conflicts", "misplaced", "parity")
+ * - a sequence of moves has been applied ("applied", the count of moves, the final layout)
  * 
  * Event listener:
  * - a restart event
@@ -47,15 +68,49 @@ import java.util.ArrayList;
  * @author marco
  */
 public class EightController extends JButton 
-        implements Serializable, VetoableChangeListener, PropertyChangeListener {
-    private HashMap<Integer,Integer> layout; // map label -> position
-    private static final int hole_label = 9;
-    private static final int row_length = (int) sqrt(hole_label);
+        implements Serializable, VetoableChangeListener, PropertyChangeListener,
+                   EightBus.Vetoer, EightBus.Listener {
+    private EightLayout layout;             // packed board: label <-> position
+    private transient EightBus bus;         // null if wired through the bean events only
+    private transient EightJournal journal; // null if the games are not recorded
+    private final EightHistory history = new EightHistory();
+    private final EightMetrics metrics;     // distance from the sorted board, updated move by move
+    private int replaying;                  // -1 while undoing, 1 while redoing, 0 otherwise
+    private transient int[] snapshot;       // the layout notified after a sequence of moves
+    private final int hole_label;
+    private final int row_length;
     private PropertyChangeSupport changes = new PropertyChangeSupport(this);
     
+    // No-arguments constructor required for being a Bean: the 8 version
     public EightController(){
+        this(3);
+    }
+    
+    /**
+     * @param row_length the number of tiles in a row, the hole label is row_length*row_length
+     */
+    public EightController(int row_length){
         super();
-        this.layout = new HashMap<>(hole_label);
+        this.row_length = row_length;
+        this.hole_label = row_length*row_length;
+        this.layout = new EightLayout(row_length);
+        this.metrics = new EightMetrics(row_length);
+        this.metrics.reset(this.layout);
+    }
+    
+    /**
+     * Registers the controller as vetoer and listener of a bus;
+     * the moves it accepts are notified on the bus
+     * @param bus the bus of the board
+     */
+    public void setBus(EightBus bus){
+        if (this.bus != null){
+            this.bus.removeVetoer(this);
+            this.bus.removeListener(this);
+        }
+        this.bus = bus;
+        bus.addVetoer(this);
+        bus.addListener(this);
     }
     
     /**
@@ -67,75 +122,379 @@ public class EightController extends JButton
     }
     
     /**
-     * Checks if a given tile is above the hole
-     * @param tile the position of the tile
-     * @param hole the position of the hole
-     * @return true if the tile is above the hole, false otherwise
+     * A move is legal if the tile is not the hole and it is adjacent to the hole
+     * @param  label the label of the tile moved
+     * @return true if the moved tile is not the hole and is adjacent to the hole
+     *         false otherwise
      */
-    private boolean isUp(int tile, int hole){
-        return tile == hole-(row_length);
+    private boolean is_legal(int label){
+        return !this.is_hole(label) && this.layout.direction(label) >= 0;
     }
     
     /**
-     * Checks if a given tile is under the hole
-     * @param tile the position of the tile
-     * @param hole the position of the hole
-     * @return true if the tile is under the hole, false otherwise
+     * Update the layout, sliding the tile with the given label on the hole, and record the move
+     * @param label the tile moved
      */
-    private boolean isDown(int tile, int hole){
-        return tile == hole+(row_length);
+    private void updateLayout(int label) {
+        int dir = this.layout.direction(label);
+        this.layout.move(dir);
+        if (this.journal != null)
+            this.journal.move(dir);
+        this.record(dir);
+        int manhattan = metrics.getManhattan(), conflicts = metrics.getConflicts();
+        int misplaced = metrics.getMisplaced(), parity = metrics.getParity();
+        this.metrics.moved(this.layout, dir);
+        this.fireMetrics(manhattan, conflicts, misplaced, parity);
     }
+    
     /**
-     * Checks if a given tile is to the left of the hole
-     * @param tile the position of the tile
-     * @param hole the position of the hole
-     * @return true if the tile is to the left of the hole, false otherwise
+     * Update the layout swapping the tiles in position 1 and 2, and record the flip
      */
-    private boolean isLeft(int tile, int hole){
-        return tile == hole-1 && tile%row_length != 0;
+    private void flipLayout() {
+        this.layout.flip();
+        if (this.journal != null)
+            this.journal.flip();
+        this.record(EightHistory.FLIP);
+        int manhattan = metrics.getManhattan(), conflicts = metrics.getConflicts();
+        int misplaced = metrics.getMisplaced(), parity = metrics.getParity();
+        this.metrics.flipped(this.layout);
+        this.fireMetrics(manhattan, conflicts, misplaced, parity);
     }
     
     /**
-     * Checks if a given tile is to the right of the hole
-     * @param tile the position of the tile
-     * @param hole the position of the hole
-     * @return true if the tile is to the right of the hole, false otherwise
+     * Restore a new configuration in the layout, and record the restart
+     * @param newLayout the i-th element is the label of the (i+1)-th tile
      */
-    private boolean isRight(int tile, int hole){
-        return tile == hole+1 && tile%row_length != 1;
+    private void resetLayout(int[] newLayout) {
+        this.layout.reset(newLayout);
+        if (this.journal != null)
+            this.journal.restart(this.layout);
+        this.history.clear();
+        int manhattan = metrics.getManhattan(), conflicts = metrics.getConflicts();
+        int misplaced = metrics.getMisplaced(), parity = metrics.getParity();
+        this.metrics.reset(this.layout);
+        this.fireMetrics(manhattan, conflicts, misplaced, parity);
     }
     
     /**
-     * Check if a given label is adjacent to the hole tile
-     * @param label the label to check
-     * @return true if label is adjacent to the hole, false otherwise
+     * Applies a sequence of moves, as if its tiles were clicked one by one
+     * @param dirs the directions of the hole (EightLayout.UP...RIGHT) or EightHistory.FLIP
+     * @return -1 if the whole sequence has been applied, otherwise the index of its first illegal move
+     *         and nothing has been applied
      */
-    private boolean is_hole_adjacent(int label) {
-        int pos = this.layout.get(label);
-        int hole = this.layout.get(this.hole_label);
-        return isUp(pos,hole) || isDown(pos,hole) || isRight(pos,hole) || isLeft(pos,hole);
+    public int applyMoves(byte[] dirs){
+        return this.applyMoves(dirs, 0, dirs.length);
     }
     
     /**
-     * A move is legal if the tile is not the hole and it is adjacent to the hole
-     * @param  label the label of the tile moved
-     * @return true if the moved tile is not the hole and is adjacent to the hole
-     *         false otherwise
+     * Applies a part of a sequence of moves, as if its tiles were clicked one by one
+     * @param dirs the directions of the hole (EightLayout.UP...RIGHT) or EightHistory.FLIP
+     * @param offset the index of the first move
+     * @param length the number of moves
+     * @return -1 if the moves have been applied, otherwise the index in dirs of the first illegal move
+     *         and nothing has been applied
      */
-    private boolean is_legal(int label){
-        return !this.is_hole(label) && this.is_hole_adjacent(label);
+    public int applyMoves(byte[] dirs, int offset, int length){
+        if (offset < 0 || length < 0 || offset+length > dirs.length)
+            throw new IndexOutOfBoundsException("Moves "+offset+".."+(offset+length)+" of "+dirs.length);
+        int end = offset+length;
+        int illegal = this.validate(dirs, offset, end);
+        if (illegal >= 0){
+            this.setText("KO");
+            return illegal;
+        }
+        if (length == 0)
+            return -1;
+        
+        int manhattan = metrics.getManhattan(), conflicts = metrics.getConflicts();
+        int misplaced = metrics.getMisplaced(), parity = metrics.getParity();
+        // the metrics follow the moves while that is cheaper than computing them again
+        boolean incremental = (long) length*row_length < this.layout.getSize();
+        for (int i=offset; i < end; i++){
+            int dir = dirs[i];
+            if (dir == EightHistory.FLIP){
+                this.layout.flip();
+                if (this.journal != null)
+                    this.journal.flip();
+                this.history.pushFlip();
+                if (incremental)
+                    this.metrics.flipped(this.layout);
+            }
+            else{
+                this.layout.move(dir);
+                if (this.journal != null)
+                    this.journal.move(dir);
+                this.history.push(dir);
+                if (incremental)
+                    this.metrics.moved(this.layout, dir);
+            }
+        }
+        if (!incremental)
+            this.metrics.reset(this.layout);
+        this.setText("OK");
+        this.fireApplied(length);
+        this.fireMetrics(manhattan, conflicts, misplaced, parity);
+        return -1;
+    }
+    
+    /**
+     * Follows the hole along a sequence of moves, without moving any tile
+     * @return the index of the first illegal move, -1 if none
+     */
+    private int validate(byte[] dirs, int offset, int end){
+        int hole = this.layout.hole()-1, last = row_length-1;
+        for (int i=offset; i < end; i++){
+            int r = hole / row_length, c = hole % row_length;
+            switch (dirs[i]){
+                case EightLayout.UP:
+                    if (r == 0)
+                        return i;
+                    hole -= row_length;
+                    break;
+                case EightLayout.DOWN:
+                    if (r == last)
+                        return i;
+                    hole += row_length;
+                    break;
+                case EightLayout.LEFT:
+                    if (c == 0)
+                        return i;
+                    hole--;
+                    break;
+                case EightLayout.RIGHT:
+                    if (c == last)
+                        return i;
+                    hole++;
+                    break;
+                case EightHistory.FLIP:
+                    if (hole != hole_label-1)
+                        return i;
+                    break;
+                default:
+                    return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Notifies the layout after a sequence of moves, on the bus and to the bean listeners
+     */
+    private void fireApplied(int count){
+        if (this.bus != null){
+            if (this.snapshot == null)
+                this.snapshot = new int[hole_label];
+            this.bus.fireApplied(this.layout.toArray(this.snapshot), count);
+        }
+        if (this.changes.hasListeners("applied")){
+            ArrayList<Integer> list = new ArrayList<>(hole_label);
+            for (int p=1; p <= hole_label; p++)
+                list.add(this.layout.label(p));
+            this.changes.firePropertyChange("applied", count, list);
+        }
+    }
+    
+    /********** Metrics **********/
+    
+    /**
+     * Bound property "manhattan"
+     * @return the sum of the Manhattan distances of the tiles from their positions
+     */
+    public int getManhattan(){
+        return this.metrics.getManhattan();
+    }
+    
+    /**
+     * Bound property "conflicts"
+     * @return the linear conflicts of the board
+     */
+    public int getConflicts(){
+        return this.metrics.getConflicts();
+    }
+    
+    /**
+     * Bound property "misplaced"
+     * @return the number of tiles out of their position, the hole excluded
+     */
+    public int getMisplaced(){
+        return this.metrics.getMisplaced();
+    }
+    
+    /**
+     * Bound property "parity"
+     * @return the parity of the inversions of the tiles: 0 if even, 1 if odd
+     */
+    public int getParity(){
+        return this.metrics.getParity();
+    }
+    
+    /**
+     * Notifies the metrics changed since the given values
+     */
+    private void fireMetrics(int manhattan, int conflicts, int misplaced, int parity){
+        this.fireMetric("manhattan", manhattan, this.metrics.getManhattan());
+        this.fireMetric("conflicts", conflicts, this.metrics.getConflicts());
+        this.fireMetric("misplaced", misplaced, this.metrics.getMisplaced());
+        this.fireMetric("parity", parity, this.metrics.getParity());
+    }
+    
+    private void fireMetric(String propertyName, int oldValue, int newValue){
+        if (oldValue != newValue && this.changes.hasListeners(propertyName))
+            this.changes.firePropertyChange(propertyName, oldValue, newValue);
+    }
+    
+    /**
+     * Updates the history with a change of the layout: a new move, or the one being undone/redone
+     * @param code the direction of the hole, or EightHistory.FLIP
+     */
+    private void record(int code){
+        if (this.replaying < 0)
+            this.history.undone();
+        else if (this.replaying > 0)
+            this.history.redone();
+        else if (code == EightHistory.FLIP)
+            this.history.pushFlip();
+        else
+            this.history.push(code);
+    }
+    
+    /**
+     * @return a copy of the layout checked by the controller
+     */
+    public EightLayout getBoard(){
+        return new EightLayout(this.layout);
+    }
+    
+    /********** Undo/redo **********/
+    
+    /**
+     * Undoes the last move or flip, requesting the inverse one to the bus as a click would:
+     * the tiles and the listeners of the bus see a normal move
+     * @return true if a move has been undone, false if there is none or it has been vetoed
+     * @throws IllegalStateException if the controller is not wired to a bus
+     */
+    public boolean undo(){
+        if (!this.history.canUndo())
+            return false;
+        int code = this.history.peekUndo();
+        return this.replay(code == EightHistory.FLIP ? code : code ^ 1, -1);
     }
     
     /**
-     * Update the map <label, position> representing the layout
-     * @param oldLabel the tile moved
-     * @param newLabel the new label for the tile
+     * Redoes the last move or flip undone, requesting it to the bus as a click would
+     * @return true if a move has been redone, false if there is none or it has been vetoed
+     * @throws IllegalStateException if the controller is not wired to a bus
      */
-    private void updateLayout(int oldLabel, int newLabel) {
-        int old_pos = this.layout.get(oldLabel);
-        int new_pos = this.layout.get(newLabel);
-        this.layout.replace(oldLabel, new_pos);
-        this.layout.replace(newLabel, old_pos);
+    public boolean redo(){
+        if (!this.history.canRedo())
+            return false;
+        return this.replay(this.history.peekRedo(), 1);
+    }
+    
+    /**
+     * @return true if some move can be undone
+     */
+    public boolean canUndo(){
+        return this.history.canUndo();
+    }
+    
+    /**
+     * @return true if some move can be redone
+     */
+    public boolean canRedo(){
+        return this.history.canRedo();
+    }
+    
+    /**
+     * Requests a move or a flip to the bus, marking it as undone (-1) or redone (+1) for the history
+     */
+    private boolean replay(int code, int direction){
+        if (this.bus == null)
+            throw new IllegalStateException("Undo and redo need a bus");
+        this.replaying = direction;
+        try {
+            if (code == EightHistory.FLIP)
+                return this.bus.requestFlip();
+            return this.bus.requestMove(this.layout.neighbour(code));
+        }
+        finally {
+            this.replaying = 0;
+        }
+    }
+    
+    /**
+     * Records the games played from now on: restarts, accepted moves and flips
+     * @param journal the journal, null to stop recording
+     */
+    public void setJournal(EightJournal journal){
+        this.journal = journal;
+        if (journal != null)
+            journal.restart(this.layout);
+    }
+    
+    /**
+     * A tile asks to be moved on the hole: veto if the move is not legal
+     * @param label the label of the tile clicked
+     * @return true if the move is vetoed
+     */
+    @Override
+    public boolean vetoMove(int label){
+        return !this.is_legal(label);
+    }
+    
+    /**
+     * No vetoer rejected the move: notify it and update the inner layout
+     * @param label the label of the tile clicked
+     */
+    @Override
+    public void commitMove(int label){
+        this.setText("OK");
+        this.fireMoved(label, this.layout.hole());
+        updateLayout(label);
+    }
+    
+    /**
+     * Some vetoer (maybe this one) rejected the move
+     * @param label the label of the tile clicked
+     */
+    @Override
+    public void rejectMove(int label){
+        this.setText("KO");
+    }
+    
+    /**
+     * The board asks to flip: veto if the hole is not at the low-right corner
+     * @return true if the flip is vetoed
+     */
+    @Override
+    public boolean vetoFlip(){
+        return !this.layout.canFlip();
+    }
+    
+    /**
+     * No vetoer rejected the flip: update the inner layout and notify it
+     */
+    @Override
+    public void commitFlip(){
+        this.flipLayout();
+        if (this.bus != null)
+            this.bus.fireFlipped();
+    }
+    
+    /**
+     * The board has been restarted: update the inner layout
+     * @param newLayout the i-th element is the label of the (i+1)-th tile
+     */
+    @Override
+    public void restarted(int[] newLayout){
+        this.resetLayout(newLayout);
+    }
+    
+    /**
+     * A sequence of moves has been applied: by this controller, the layout is already up to date
+     */
+    @Override
+    public void applied(int[] newLayout, int count){
     }
     
     /**
@@ -158,24 +517,21 @@ public class EightController extends JButton
     
     /**
      * Flip event: veto on it if the hole is not at the low-right corner;
-     * if the flip is legal, update the inner layout map;
+     * if the flip is legal, update the inner layout;
      * @param evt a flip event <"flip", tile1.label, tile2.label>
      * @throws PropertyVetoException if hole.label != hole.position
      */
     private void handle_flip(PropertyChangeEvent evt) throws PropertyVetoException{
-        if (!this.layout.get(hole_label).equals(hole_label))
+        if (!this.layout.canFlip())
             throw new PropertyVetoException( "The hole is not in position "+hole_label, evt );
         
-        // update inner layout map
-        int tile1 = Integer.valueOf((String) evt.getOldValue());
-        int tile2 = Integer.valueOf((String) evt.getNewValue());
-        this.layout.replace(tile1, 2);
-        this.layout.replace(tile2, 1);
+        // update inner layout: swap the tiles in position 1 and 2
+        this.flipLayout();
     }
     
     /**
      * Label change event: veto on it if the move is not legal!
-     * If the move is legal, update the inner layout map and pass tiles' position to the board,
+     * If the move is legal, update the inner layout and pass tiles' position to the board,
      * that is, it fires a PropertyChange with <label, position> to the board!
      * @param  evt A property "label" change event
      * @throws PropertyVetoException if the label is the hole label or is not adjacent to that
@@ -192,17 +548,13 @@ public class EightController extends JButton
         }
         else{
             this.setText("OK");
-            this.eightFirePropertyChange(
-                    evt.getPropertyName(),
-                    (int)(evt.getOldValue()),
-                    (int)this.layout.get((int) evt.getNewValue())
-            );
-            updateLayout(oldLabel, newLabel);
+            this.fireMoved(oldLabel, this.layout.position(newLabel));
+            updateLayout(oldLabel);
         }
     }
             
     /**
-     * A "restart" event is fired! Update the inner layout map
+     * A "restart" event is fired! Update the inner layout
      * @param evt the event that is fired
      */
     @Override
@@ -213,14 +565,10 @@ public class EightController extends JButton
         
         // the new layout has the form <i, tile_(i+1).label>
         ArrayList<Integer> newLayout = (ArrayList<Integer>) evt.getNewValue();
-        
-        for (int i=0; i < newLayout.size(); i++){
-            if (this.layout.containsKey(newLayout.get(i)))
-                this.layout.replace(newLayout.get(i), i+1);
-            else
-                this.layout.put(newLayout.get(i), i+1);
-        }
-        
+        int[] labels = new int[newLayout.size()];
+        for (int i=0; i < labels.length; i++)
+            labels[i] = newLayout.get(i);
+        this.resetLayout(labels);
     }
     
     /**
@@ -232,6 +580,25 @@ public class EightController extends JButton
         this.changes.addPropertyChangeListener(l);
     }
     
+    /**
+     * Add a listener of a single property to the PropertyChangeSupport list,
+     * e.g. of the metrics ("manhattan", "conflicts", "misplaced", "parity")
+     * @param propertyName the name of the property
+     * @param l the listener to add
+     */
+    public void eightAddPropertyChangeListener(String propertyName, PropertyChangeListener l){
+        this.changes.addPropertyChangeListener(propertyName, l);
+    }
+    
+    /**
+     * Remove a listener of a single property from the PropertyChangeSupport list
+     * @param propertyName the name of the property
+     * @param l the listener to remove
+     */
+    public void eightRemovePropertyChangeListener(String propertyName, PropertyChangeListener l){
+        this.changes.removePropertyChangeListener(propertyName, l);
+    }
+    
     /**
      * Remove a listener from the PropertyChangeSupport list
      * It's a wrapper method, used to avoid dynamic dispatch errors
@@ -241,6 +608,18 @@ public class EightController extends JButton
         this.changes.removePropertyChangeListener(l);
     }
     
+    /**
+     * Notifies a move to the bus and to the bean listeners
+     * @param label the label of the tile moved
+     * @param position the position of the hole
+     */
+    private void fireMoved(int label, int position){
+        if (this.bus != null)
+            this.bus.fireMoved(label, position);
+        if (this.changes.hasListeners("label"))
+            this.eightFirePropertyChange("label", label, position);
+    }
+    
     /**
      * Fires a property change without checking if oldValue == newValue
      * @param propertyName the name of the propety changed
@@ -250,7 +629,9 @@ public class EightController extends JButton
     public void eightFirePropertyChange(String propertyName, Object oldValue, Object newValue) {
         PropertyChangeEvent evt = new PropertyChangeEvent(changes, propertyName, oldValue, newValue);
         for (var listener : changes.getPropertyChangeListeners())
-            listener.propertyChange(evt);
+            if (!(listener instanceof PropertyChangeListenerProxy)
+                    || ((PropertyChangeListenerProxy) listener).getPropertyName().equals(propertyName))
+                listener.propertyChange(evt);
     }
     
 }
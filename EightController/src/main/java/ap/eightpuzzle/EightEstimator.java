@@ -0,0 +1,52 @@
+package ap.eightpuzzle;
+
+/**
+ * Admissible estimate of the number of moves needed to sort a board,
+ * pluggable in the solvers.
+ *
+ * The iterative deepening solver gives the board as two arrays of 0-based values,
+ * kept consistent by the solver: cells maps position -> label-1 and where maps label-1 -> position;
+ * the hole is the label size-1.
+ * The A* solver gives the packed configuration of EightLayout (up to 16 cells):
+ * every estimator supports it, so any estimator can be given to any solver.
+ * The estimate must be zero only on the sorted board.
+ *
+ * @author marco
+ */
+public interface EightEstimator {
+
+    /**
+     * @param cells position -> label-1
+     * @param where label-1 -> position
+     * @return the estimate of the whole board
+     */
+    int estimate(int[] cells, int[] where);
+
+    /**
+     * Variation of the estimate after a move; it is invoked when the move is already applied
+     * @param cells position -> label-1, after the move
+     * @param where label-1 -> position, after the move
+     * @param from the 0-based position of the moved tile before the move (the new hole)
+     * @param to the 0-based position of the moved tile after the move (the old hole)
+     * @return the estimate after the move minus the estimate before the move
+     */
+    int delta(int[] cells, int[] where, int from, int to);
+
+    /**
+     * @param cells a packed configuration, as returned by EightLayout.getPacked()
+     * @return the estimate of the whole board
+     */
+    int estimate(long cells);
+
+    /**
+     * Variation of the estimate after a move on a packed configuration
+     * @param before the packed configuration before the move
+     * @param after the packed configuration after the move
+     * @param from the 0-based position of the moved tile before the move (the new hole)
+     * @param to the 0-based position of the moved tile after the move (the old hole)
+     * @return estimate(after) - estimate(before)
+     */
+    default int delta(long before, long after, int from, int to){
+        return estimate(after) - estimate(before);
+    }
+}
@@ -0,0 +1,349 @@
+package ap.eightpuzzle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Breadth-first search of the whole space of a board with the memory bounded by a budget:
+ * the layers live on disk, so the space can be larger than the heap (e.g. the 15 version).
+ *
+ * Design choices:
+ * - The states are the packed configurations of EightLayout and the moves are the ones
+ *   enforced by the controller;
+ * - Every layer is a file of sorted states, delta-compressed: each state is written
+ *   as the unsigned varint of its difference from the previous one;
+ * - The successors of a layer are collected in a buffer of bounded size: when the buffer
+ *   is full it is sorted, deduplicated and written as a run;
+ * - Duplicates are detected by merging (delayed duplicate detection): the runs are merged
+ *   together with the two previous layers, which are the only ones that can contain
+ *   a successor in an undirected graph; if the runs are too many for the budget,
+ *   they are first merged in groups;
+ * - All the files are read and written through FileChannels with fixed buffers;
+ * - A layer is deleted as soon as the search does not need it any more:
+ *   the disk holds at most four layers and the runs of one of them.
+ *
+ * @author marco
+ */
+public final class EightExternalBFS {
+    private static final int BUFFER = 1 << 16;      // bytes of a file buffer
+
+    private final int row_length;
+    private final int size;
+    private final int[] delta;
+    private final byte[] legal;
+    private final Path dir;
+    private final long[] successors;                // sort buffer
+    private final int fan_in;                       // runs merged at once
+    private int runs;                               // runs written so far, for unique names
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @param dir the directory of the layers and of the runs
+     * @param memory the budget in bytes: half for the sort buffer, half for the file buffers
+     */
+    public EightExternalBFS(int row_length, Path dir, long memory){
+        if (row_length*row_length > EightLayout.MAX_SIZE)
+            throw new IllegalArgumentException("Unsupported board of side "+row_length);
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.delta = new int[]{ -row_length, row_length, -1, 1 };
+        this.legal = EightLayout.legalMoves(row_length);
+        this.dir = dir;
+        this.successors = new long[(int) Math.max(1024, Math.min(Integer.MAX_VALUE-8, memory/16))];
+        this.fan_in = (int) Math.max(2, memory/2/BUFFER - 3);
+    }
+
+    /**
+     * @param depth a layer
+     * @return the file of the layer: after run(), the last two layers are kept
+     */
+    public Path layer(int depth){
+        return dir.resolve("layer-"+depth+".bin");
+    }
+
+    /**
+     * Searches the whole space from the sorted board
+     * @return the number of boards at each distance from the sorted one;
+     *         the last element is the number of the hardest boards
+     * @throws IOException if the layers cannot be read or written
+     */
+    public long[] run() throws IOException {
+        Files.createDirectories(dir);
+        long[] counts = new long[16];
+        try (Writer w = new Writer(layer(0))){
+            w.write(EightLayout.solved(size));
+        }
+        counts[0] = 1;
+        Files.deleteIfExists(layer(-1));
+        Files.createFile(layer(-1));
+
+        int d = 0;
+        while (counts[d] > 0){
+            List<Path> generated = expand(layer(d));
+            Path next = merge(generated, layer(d+1), layer(d), layer(d-1));
+            for (Path run : generated)
+                Files.delete(run);
+            Files.deleteIfExists(layer(d-2));
+
+            if (++d == counts.length)
+                counts = Arrays.copyOf(counts, 2*d);
+            counts[d] = count(next);
+        }
+        Files.delete(layer(d));
+        return Arrays.copyOf(counts, d);
+    }
+
+    /**
+     * Streams the boards of a layer
+     * @param depth a layer that is kept on disk
+     * @param action invoked with the packed configuration of each board, in increasing order
+     * @throws IOException if the layer cannot be read
+     */
+    public void read(int depth, LongConsumer action) throws IOException {
+        try (Reader r = new Reader(layer(depth))){
+            while (r.hasNext())
+                action.accept(r.next());
+        }
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * Writes the successors of a layer as sorted runs
+     * @return the runs
+     */
+    private List<Path> expand(Path layer) throws IOException {
+        List<Path> generated = new ArrayList<>();
+        int n = 0;
+        try (Reader r = new Reader(layer)){
+            while (r.hasNext()){
+                long s = r.next();
+                int hole = 0;
+                while (EightLayout.nibble(s, hole) != size-1)
+                    hole++;
+                for (int dir=0; dir < 4; dir++){
+                    if ((legal[hole] & (1 << dir)) == 0)
+                        continue;
+                    if (n == successors.length){
+                        generated.add(flush(n));
+                        n = 0;
+                    }
+                    successors[n++] = EightLayout.slide(s, hole, hole+delta[dir], size);
+                }
+            }
+        }
+        if (n > 0)
+            generated.add(flush(n));
+        return generated;
+    }
+
+    /**
+     * Sorts and writes the first n successors as a run, without duplicates
+     */
+    private Path flush(int n) throws IOException {
+        Arrays.sort(successors, 0, n);
+        Path run = dir.resolve("run-"+(runs++)+".bin");
+        try (Writer w = new Writer(run)){
+            for (int i=0; i < n; i++)
+                w.write(successors[i]);
+        }
+        return run;
+    }
+
+    /**
+     * Merges the runs in a single layer, skipping the boards of the previous layers
+     * @return the new layer
+     */
+    private Path merge(List<Path> generated, Path out, Path previous, Path before) throws IOException {
+        List<Path> pending = generated, temporary = new ArrayList<>();
+        List<Reader> readers = new ArrayList<>();
+        try {
+            while (pending.size() > fan_in){
+                List<Path> merged = new ArrayList<>();
+                for (int i=0; i < pending.size(); i += fan_in){
+                    Path run = dir.resolve("run-"+(runs++)+".bin");
+                    temporary.add(run);
+                    merge(pending.subList(i, Math.min(i+fan_in, pending.size())), run, null, null);
+                    merged.add(run);
+                }
+                pending = merged;
+            }
+
+            try (Writer w = new Writer(out);
+                 Reader prev = previous == null ? null : new Reader(previous);
+                 Reader prev2 = before == null ? null : new Reader(before)){
+                for (Path p : pending)
+                    readers.add(new Reader(p));
+
+                // binary heap of the readers, by their current board
+                int k = 0;
+                Reader[] heap = new Reader[readers.size()];
+                for (Reader r : readers)
+                    if (r.hasNext()){
+                        r.next();
+                        heap[k++] = r;
+                    }
+                for (int i=k/2-1; i >= 0; i--)
+                    down(heap, k, i);
+
+                while (k > 0){
+                    long s = heap[0].current;
+                    if (heap[0].hasNext())
+                        heap[0].next();
+                    else
+                        heap[0] = heap[--k];
+                    down(heap, k, 0);
+                    if (!contains(prev, s) && !contains(prev2, s))
+                        w.write(s);
+                }
+            }
+        }
+        finally{
+            for (Reader r : readers)
+                r.close();
+            for (Path run : temporary)
+                Files.deleteIfExists(run);
+        }
+        return out;
+    }
+
+    private static void down(Reader[] heap, int k, int i){
+        Reader r = heap[i];
+        while (2*i+1 < k){
+            int c = 2*i+1;
+            if (c+1 < k && heap[c+1].current < heap[c].current)
+                c++;
+            if (heap[c].current >= r.current)
+                break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = r;
+    }
+
+    /**
+     * Advances a sorted layer up to s
+     * @return true if the layer contains s
+     */
+    private static boolean contains(Reader layer, long s) throws IOException {
+        if (layer == null)
+            return false;
+        while (!layer.started || layer.current < s){
+            if (!layer.hasNext())
+                return false;
+            layer.next();
+        }
+        return layer.current == s;
+    }
+
+    private static long count(Path layer) throws IOException {
+        long n = 0;
+        try (Reader r = new Reader(layer)){
+            while (r.hasNext()){
+                r.next();
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Delta-compressed sorted sequence of boards, written through a buffer
+     */
+    private static final class Writer implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        long last = Long.MIN_VALUE;
+        long count;
+
+        Writer(Path file) throws IOException {
+            this.ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * @param s a board not less than the previous one; duplicates are skipped
+         */
+        void write(long s) throws IOException {
+            if (count > 0 && s == last)
+                return;
+            if (buf.remaining() < 10)
+                drain();
+            long d = s - last;
+            while ((d & ~0x7FL) != 0){
+                buf.put((byte) ((d & 0x7F) | 0x80));
+                d >>>= 7;
+            }
+            buf.put((byte) d);
+            last = s;
+            count++;
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            ch.close();
+        }
+    }
+
+    /**
+     * Reader of the files of Writer
+     */
+    private static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        private boolean eof;
+        long current = Long.MIN_VALUE;
+        boolean started;
+
+        Reader(Path file) throws IOException {
+            this.ch = FileChannel.open(file, StandardOpenOption.READ);
+            buf.flip();
+        }
+
+        boolean hasNext() throws IOException {
+            if (buf.remaining() < 10 && !eof){
+                buf.compact();
+                while (buf.hasRemaining() && !eof)
+                    eof = ch.read(buf) < 0;
+                buf.flip();
+            }
+            return buf.hasRemaining();
+        }
+
+        long next(){
+            long d = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get();
+                d |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += d;
+            started = true;
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ap.eightpuzzle;
+
+/**
+ * Admissible estimate of the number of moves needed to sort a board:
+ * Manhattan distance plus linear conflicts.
+ *
+ * Design choices:
+ * - The Manhattan distance of each <label, position> pair is precomputed in a table;
+ * - The conflicts of every possible content of every line (row or column) are precomputed:
+ *   the index is the line number followed by the nibbles of its cells,
+ *   so a line costs a shift, a mask and a table lookup;
+ * - The conflicts of a line are 2*(k - lis), where k is the number of tiles that belong to the line
+ *   and lis the longest increasing subsequence of their goal indices:
+ *   every other tile has to leave the line and come back;
+ * - A move changes at most three lines, so the estimate of a child is updated
+ *   from the one of its parent without scanning the whole board;
+ * - The packed methods serve the boards of EightLayout; the array methods (EightEstimator)
+ *   serve boards of any side, but the tables of the conflicts would be too large beyond
+ *   the 15 version, so on larger boards the estimate is the Manhattan distance only.
+ *
+ * @author marco
+ */
+public final class EightHeuristic implements EightEstimator {
+    private static final int NONE = 7;
+
+    private final int row_length;
+    private final int size;
+    private final byte[] manhattan;         // label-1 * size + position -> distance
+    private final short[] row_of;           // 0-based position -> row
+    private final short[] col_of;           // 0-based position -> column
+    private final int line_bits;
+    private final byte[] rows;              // row, nibbles of the row -> linear conflicts
+    private final byte[] cols;              // column, nibbles of the column -> linear conflicts
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightHeuristic(int row_length){
+        if (row_length < 2)
+            throw new IllegalArgumentException("Unsupported board of side "+row_length);
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.row_of = new short[size];
+        this.col_of = new short[size];
+        for (int p=0; p < size; p++){
+            row_of[p] = (short) (p/row_length);
+            col_of[p] = (short) (p%row_length);
+        }
+        if (size > EightLayout.MAX_SIZE){
+            this.manhattan = null;
+            this.line_bits = 0;
+            this.rows = null;
+            this.cols = null;
+            return;
+        }
+
+        this.manhattan = new byte[size*size];
+        for (int l=0; l < size-1; l++)
+            for (int p=0; p < size; p++)
+                manhattan[l*size+p] = (byte) distance(l, p);
+
+        this.line_bits = 4*row_length;
+        this.rows = new byte[row_length << line_bits];
+        this.cols = new byte[row_length << line_bits];
+        int[] row = new int[row_length], col = new int[row_length];
+        for (int bits=0; bits < (1 << line_bits); bits++)
+            for (int i=0; i < row_length; i++){
+                for (int j=0; j < row_length; j++){
+                    int l = (bits >>> (4*j)) & 0xF;
+                    boolean tile = l < size-1;
+                    row[j] = tile && l/row_length == i ? l%row_length : NONE;
+                    col[j] = tile && l%row_length == i ? l/row_length : NONE;
+                }
+                rows[(i << line_bits) | bits] = (byte) lineConflicts(row, row_length);
+                cols[(i << line_bits) | bits] = (byte) lineConflicts(col, row_length);
+            }
+    }
+
+    public int getRowLength(){
+        return row_length;
+    }
+
+    /**
+     * @param label a label in [1, size-1]
+     * @param position a position in [1, size]
+     * @return the Manhattan distance of the tile from its goal position
+     */
+    public int manhattan(int label, int position){
+        return distance(label-1, position-1);
+    }
+
+    /********** Packed boards (up to 16 cells) **********/
+
+    /**
+     * Full estimate of a packed configuration
+     * @param cells a packed configuration, as returned by EightLayout.getPacked()
+     * @return the Manhattan distance plus the linear conflicts
+     */
+    @Override
+    public int estimate(long cells){
+        int h = 0;
+        for (int p=0; p < size; p++){
+            int l = EightLayout.nibble(cells, p);
+            if (l != size-1)
+                h += manhattan[l*size+p];
+        }
+        for (int i=0; i < row_length; i++)
+            h += row(cells, i) + col(cells, i);
+        return h;
+    }
+
+    /**
+     * Variation of the estimate after a move
+     * @param before the packed configuration before the move
+     * @param after the packed configuration after the move
+     * @param from the 0-based position of the moved tile before the move (the new hole)
+     * @param to the 0-based position of the moved tile after the move (the old hole)
+     * @return estimate(after) - estimate(before)
+     */
+    @Override
+    public int delta(long before, long after, int from, int to){
+        int l = EightLayout.nibble(before, from);
+        int d = manhattan[l*size+to] - manhattan[l*size+from];
+        int r1 = from/row_length, c1 = from%row_length;
+        int r2 = to/row_length, c2 = to%row_length;
+        if (r1 == r2){
+            d += row(after, r1) - row(before, r1);
+            d += col(after, c1) - col(before, c1);
+            d += col(after, c2) - col(before, c2);
+        }
+        else{
+            d += col(after, c1) - col(before, c1);
+            d += row(after, r1) - row(before, r1);
+            d += row(after, r2) - row(before, r2);
+        }
+        return d;
+    }
+
+    /********** Boards of any side **********/
+
+    @Override
+    public int estimate(int[] cells, int[] where){
+        int h = 0;
+        for (int l=0; l < size-1; l++)
+            h += distance(l, where[l]);
+        if (rows != null)
+            for (int i=0; i < row_length; i++)
+                h += row(cells, i) + col(cells, i);
+        return h;
+    }
+
+    @Override
+    public int delta(int[] cells, int[] where, int from, int to){
+        int l = cells[to];
+        int d = distance(l, to) - distance(l, from);
+        if (rows == null)
+            return d;
+
+        int r1 = row_of[from], c1 = col_of[from];
+        int r2 = row_of[to], c2 = col_of[to];
+        int after = (r1 == r2) ? row(cells, r1) + col(cells, c1) + col(cells, c2)
+                               : col(cells, c1) + row(cells, r1) + row(cells, r2);
+        // undo the move in place to measure the lines before it
+        cells[from] = l;
+        cells[to] = size-1;
+        int before = (r1 == r2) ? row(cells, r1) + col(cells, c1) + col(cells, c2)
+                                : col(cells, c1) + row(cells, r1) + row(cells, r2);
+        cells[from] = size-1;
+        cells[to] = l;
+        return d + after - before;
+    }
+
+    /**
+     * @param cells position -> label-1
+     * @return the linear conflicts of the lines a flip changes (the first row, the first two columns);
+     *         0 beyond the 15 version, whose estimate has no conflicts
+     */
+    int flipConflicts(int[] cells){
+        if (rows == null)
+            return 0;
+        return row(cells, 0) + col(cells, 0) + col(cells, 1);
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return the Manhattan distance of the 0-based label l from the 0-based position p
+     */
+    private int distance(int l, int p){
+        return Math.abs(row_of[l] - row_of[p]) + Math.abs(col_of[l] - col_of[p]);
+    }
+
+    /**
+     * @return the linear conflicts of the r-th row of an array board
+     */
+    private int row(int[] cells, int r){
+        int bits = 0;
+        for (int c=0; c < row_length; c++)
+            bits |= cells[r*row_length+c] << (4*c);
+        return rows[(r << line_bits) | bits];
+    }
+
+    /**
+     * @return the linear conflicts of the c-th column of an array board
+     */
+    private int col(int[] cells, int c){
+        int bits = 0;
+        for (int r=0; r < row_length; r++)
+            bits |= cells[r*row_length+c] << (4*r);
+        return cols[(c << line_bits) | bits];
+    }
+
+    /**
+     * @return the linear conflicts of the r-th row
+     */
+    private int row(long cells, int r){
+        int bits = (int) (cells >>> (r*line_bits)) & ((1 << line_bits)-1);
+        return rows[(r << line_bits) | bits];
+    }
+
+    /**
+     * @return the linear conflicts of the c-th column
+     */
+    private int col(long cells, int c){
+        int bits = 0;
+        for (int r=0; r < row_length; r++)
+            bits |= EightLayout.nibble(cells, r*row_length+c) << (4*r);
+        return cols[(c << line_bits) | bits];
+    }
+
+    /**
+     * Linear conflicts of a line
+     * @param line the goal index of each tile in the line, NONE for the tiles out of their line
+     * @param n the length of the line
+     * @return 2*(number of tiles that belong to the line - longest increasing subsequence)
+     */
+    static int lineConflicts(int[] line, int n){
+        int k = 0, lis = 0;
+        int[] best = new int[n];
+        for (int i=0; i < n; i++){
+            if (line[i] == NONE)
+                continue;
+            k++;
+            best[i] = 1;
+            for (int j=0; j < i; j++)
+                if (line[j] != NONE && line[j] < line[i] && best[j]+1 > best[i])
+                    best[i] = best[j]+1;
+            lis = Math.max(lis, best[i]);
+        }
+        return 2*(k-lis);
+    }
+}
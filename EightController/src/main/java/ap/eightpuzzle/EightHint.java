@@ -0,0 +1,304 @@
+package ap.eightpuzzle;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hint engine: computes the next move of an optimal solution of the board in background,
+ * and hands it to a callback on the thread of the search.
+ *
+ * Design choices:
+ * - Each request runs on a new thread: a virtual thread when the runtime has them
+ *   (EightThreads), a daemon platform thread of minimum priority otherwise; the caller never waits;
+ * - The engine is a Listener of the bus: a move, a flip or a restart cancels the running search,
+ *   by interrupting its thread (the solvers poll the flag) and by advancing a generation counter,
+ *   so a hint computed for an old board is never delivered;
+ * - A board that cannot be sorted without flipping is planned (EightIDASolver.plan): its hints
+ *   bring the hole to the corner, then suggest the flip, then sort the board;
+ * - The hints are memoized per position: a solution gives the next move of every board on its path,
+ *   so following the hints is answered from the memo without searching again;
+ *   the memo is dropped when it reaches MAX_MEMO positions; an optional EightCache, shared with
+ *   other engines or solvers, is asked before searching and fed with the solutions found;
+ * - The solvers are not thread-safe: each search borrows one from a pool and gives it back;
+ * - The latency from a request to its hint is measured: the first one and the running statistics.
+ *
+ * @author marco
+ */
+public final class EightHint implements EightBus.Listener {
+    static final int MAX_MEMO = 1 << 20;            // positions memoized
+    public static final int FLIP = -1;              // label of the hint to flip
+
+    /**
+     * Receiver of the hints, invoked on the thread of the search (or of the request, on a memo hit)
+     */
+    public interface Callback {
+        /**
+         * @param ticket the ticket of the request, see isCurrent
+         * @param label the label of the tile to move, FLIP if the next action is a flip, 0 if the board is sorted
+         * @param position the position of that tile, 0 if none
+         */
+        void hint(long ticket, int label, int position);
+    }
+
+    private static final ThreadFactory THREADS = EightThreads.virtual("eight-hint", Thread.MIN_PRIORITY);
+
+    private final int row_length;
+    private final EightCache cache;                 // shared solutions, null if none
+    private final ConcurrentHashMap<Object, Byte> memo = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Solver> solvers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Thread running;                // thread of the current search, null if none
+
+    // latency, in nanoseconds
+    private final AtomicLong hints = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private volatile long first = -1;
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightHint(int row_length){
+        this(row_length, null);
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @param cache the solutions shared with other searches, of the same side; null if none
+     */
+    public EightHint(int row_length, EightCache cache){
+        if (cache != null && cache.getRowLength() != row_length)
+            throw new IllegalArgumentException("Wrong cache side: "+cache.getRowLength());
+        this.row_length = row_length;
+        this.cache = cache;
+    }
+
+    /**
+     * Requests the hint for a board, cancelling the running search
+     * @param layout the board, copied before returning
+     * @param callback the receiver of the hint, invoked at most once
+     * @return the ticket of the request
+     */
+    public long request(EightLayout layout, Callback callback){
+        if (layout.getRowLength() != row_length)
+            throw new IllegalArgumentException("Wrong board side: "+layout.getRowLength());
+        long start = System.nanoTime();
+        long ticket = cancel();
+        EightLayout board = new EightLayout(layout);
+        Byte dir = memo.get(key(board));
+        if (dir != null){
+            deliver(ticket, start, board, dir, callback);
+            return ticket;
+        }
+        byte[] path = cache != null ? cache.get(board) : null;
+        if (path != null){
+            remember(new EightLayout(board), path);
+            deliver(ticket, start, board, path.length == 0 ? -1 : path[0], callback);
+            return ticket;
+        }
+        Thread t = THREADS.newThread(() -> search(ticket, start, board, callback));
+        this.running = t;
+        t.start();
+        return ticket;
+    }
+
+    /**
+     * Cancels the running search, if any: its hint will not be delivered
+     * @return the new generation, i.e. the ticket of the next request
+     */
+    public long cancel(){
+        long ticket = generation.incrementAndGet();
+        Thread t = running;
+        if (t != null){
+            running = null;
+            t.interrupt();
+        }
+        return ticket;
+    }
+
+    /**
+     * @param ticket the ticket of a request
+     * @return true if no move, restart or other request happened since the request
+     */
+    public boolean isCurrent(long ticket){
+        return generation.get() == ticket;
+    }
+
+    /********** Bus events **********/
+
+    @Override
+    public void moved(int label, int position){
+        cancel();
+    }
+
+    @Override
+    public void restarted(int[] layout){
+        cancel();
+    }
+
+    @Override
+    public void flipped(){
+        cancel();
+    }
+
+    /********** Statistics **********/
+
+    /**
+     * @return the number of hints delivered
+     */
+    public long getHints(){
+        return hints.get();
+    }
+
+    /**
+     * @return the latency of the first hint delivered, in nanoseconds; -1 if none
+     */
+    public long getFirstLatency(){
+        return first;
+    }
+
+    /**
+     * @return the mean latency of the hints delivered, in nanoseconds; 0 if none
+     */
+    public long getMeanLatency(){
+        long n = hints.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * @return the maximum latency of the hints delivered, in nanoseconds
+     */
+    public long getMaxLatency(){
+        return max.get();
+    }
+
+    /**
+     * @return the number of positions memoized
+     */
+    public int getMemoSize(){
+        return memo.size();
+    }
+
+    /********** Auxiliary methods **********/
+
+    private void search(long ticket, long start, EightLayout board, Callback callback){
+        Solver solver = solvers.poll();
+        if (solver == null)
+            solver = new Solver(row_length);
+        byte[] path;
+        try {
+            path = solver.solve(board.toArray(new int[board.getSize()]));
+            if (path != null && cache != null)
+                cache.put(board, path, solver.expanded);
+        }
+        catch (CancellationException e){
+            return;
+        }
+        finally {
+            solvers.offer(solver);
+            Thread.interrupted();
+        }
+        if (path == null)
+            remember(board, new byte[]{ -1 });
+        else
+            remember(new EightLayout(board), path);
+        if (isCurrent(ticket))
+            deliver(ticket, start, board, path == null || path.length == 0 ? -1 : path[0], callback);
+    }
+
+    /**
+     * Memoizes the next move of every board on a solution (-1 at its end, or if unsolvable)
+     */
+    private void remember(EightLayout board, byte[] path){
+        if (memo.size() + path.length > MAX_MEMO)
+            memo.clear();
+        for (byte dir : path){
+            memo.put(key(board), dir);
+            if (dir < 0)
+                return;
+            if (dir == EightHistory.FLIP)
+                board.flip();
+            else
+                board.move(dir);
+        }
+        memo.put(key(board), (byte) -1);
+    }
+
+    private void deliver(long ticket, long start, EightLayout board, int dir, Callback callback){
+        long latency = System.nanoTime() - start;
+        if (hints.getAndIncrement() == 0)
+            first = latency;
+        total.addAndGet(latency);
+        max.accumulateAndGet(latency, Math::max);
+        if (dir < 0)
+            callback.hint(ticket, 0, 0);
+        else if (dir == EightHistory.FLIP)
+            callback.hint(ticket, FLIP, 0);
+        else{
+            int label = board.neighbour(dir);
+            callback.hint(ticket, label, board.position(label));
+        }
+    }
+
+    /**
+     * @return the packed board up to 16 cells, a copy of its labels otherwise
+     */
+    private static Object key(EightLayout board){
+        if (board.isPacked())
+            return board.getPacked();
+        return new Labels(board.toArray(new int[board.getSize()]));
+    }
+
+    /**
+     * Labels of a board too large to be packed, as a key of the memo
+     */
+    private static final class Labels {
+        final int[] labels;
+        final int hash;
+
+        Labels(int[] labels){
+            this.labels = labels;
+            this.hash = Arrays.hashCode(labels);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Labels && Arrays.equals(labels, ((Labels) o).labels);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+    }
+
+    /**
+     * Optimal solver of the side of the board: A* up to the 8 version, IDA* for larger boards
+     * and for the plans of the boards that cannot be sorted without flipping
+     */
+    private static final class Solver {
+        private final EightSolver astar;
+        private final EightIDASolver ida;
+        long expanded;                              // nodes expanded by the last search
+
+        Solver(int row_length){
+            this.astar = row_length <= 3 ? new EightSolver(row_length) : null;
+            this.ida = new EightIDASolver(row_length);
+        }
+
+        byte[] solve(int[] layout){
+            byte[] path = astar != null ? astar.solve(layout) : null;
+            if (path != null){
+                expanded = astar.getExpanded();
+                return path;
+            }
+            path = ida.plan(layout);
+            expanded = ida.getExpanded();
+            return path;
+        }
+    }
+}
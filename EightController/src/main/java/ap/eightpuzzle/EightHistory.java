@@ -0,0 +1,128 @@
+package ap.eightpuzzle;
+
+import java.util.Arrays;
+
+/**
+ * Undo/redo history of a game: the moves done since the last restart, as a stack
+ * with a cursor (the moves before the cursor can be undone, the ones after it redone).
+ *
+ * Design choices:
+ * - A move is the direction of the hole (EightLayout.UP, DOWN, LEFT, RIGHT), packed in 2 bits,
+ *   32 moves per long: a session of a million moves takes 250 KB, whatever the side of the board;
+ * - A flip is written as RIGHT, which cannot be told apart from a move when undoing it:
+ *   the indices of the flips are kept aside, in a sorted array, since they are rare;
+ * - Recording a move after an undo drops the moves that could be redone, as editors do;
+ * - The history stores no configuration: undoing means applying the inverse move,
+ *   so the caller does it through its normal move path.
+ *
+ * @author marco
+ */
+public final class EightHistory {
+    public static final int FLIP = 4;               // code of a flip, besides the 4 directions
+
+    private long[] moves = new long[4];             // 2 bits per move, first move in the low bits
+    private int cursor;                             // number of moves that can be undone
+    private int size;                               // cursor + number of moves that can be redone
+    private int[] flips = new int[4];               // sorted indices of the flips
+    private int flip_count;
+
+    /**
+     * Records a move, dropping the ones that could be redone
+     * @param dir the direction in which the hole slid
+     */
+    public void push(int dir){
+        if (cursor == Integer.MAX_VALUE)
+            throw new IllegalStateException("History full");
+        int word = cursor >>> 5;
+        if (word == moves.length)
+            moves = Arrays.copyOf(moves, 2*moves.length);
+        int shift = (cursor & 31) << 1;
+        moves[word] = (moves[word] & ~(3L << shift)) | ((long) dir << shift);
+        while (flip_count > 0 && flips[flip_count-1] >= cursor)
+            flip_count--;
+        size = ++cursor;
+    }
+
+    /**
+     * Records a flip, dropping the moves that could be redone
+     */
+    public void pushFlip(){
+        int index = cursor;
+        push(EightLayout.RIGHT);
+        if (flip_count == flips.length)
+            flips = Arrays.copyOf(flips, 2*flip_count);
+        flips[flip_count++] = index;
+    }
+
+    /**
+     * @return true if some move can be undone
+     */
+    public boolean canUndo(){
+        return cursor > 0;
+    }
+
+    /**
+     * @return true if some move can be redone
+     */
+    public boolean canRedo(){
+        return cursor < size;
+    }
+
+    /**
+     * @return the last move done (a direction or FLIP), without undoing it
+     * @throws IllegalStateException if no move can be undone
+     */
+    public int peekUndo(){
+        if (cursor == 0)
+            throw new IllegalStateException("Nothing to undo");
+        return code(cursor-1);
+    }
+
+    /**
+     * @return the next move undone (a direction or FLIP), without redoing it
+     * @throws IllegalStateException if no move can be redone
+     */
+    public int peekRedo(){
+        if (cursor == size)
+            throw new IllegalStateException("Nothing to redo");
+        return code(cursor);
+    }
+
+    /**
+     * The last move has been undone: moves the cursor back
+     */
+    public void undone(){
+        peekUndo();
+        cursor--;
+    }
+
+    /**
+     * The next move has been redone: moves the cursor forward
+     */
+    public void redone(){
+        peekRedo();
+        cursor++;
+    }
+
+    /**
+     * Forgets all the moves, e.g. at a restart
+     */
+    public void clear(){
+        cursor = size = flip_count = 0;
+    }
+
+    /**
+     * @return the number of moves that can be undone
+     */
+    public int getMoves(){
+        return cursor;
+    }
+
+    /********** Auxiliary methods **********/
+
+    private int code(int i){
+        if (Arrays.binarySearch(flips, 0, flip_count, i) >= 0)
+            return FLIP;
+        return (int) (moves[i >>> 5] >>> ((i & 31) << 1)) & 3;
+    }
+}
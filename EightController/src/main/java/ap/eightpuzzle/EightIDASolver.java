@@ -0,0 +1,303 @@
+package ap.eightpuzzle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Optimal iterative deepening A* solver for boards of any side (the 15 version and larger).
+ *
+ * Design choices:
+ * - The memory is bounded by the length of the solution: the only state is the board,
+ *   kept in two primitive arrays (position -> label, label -> position),
+ *   and the current path of moves;
+ * - Every move is made and unmade in place on the arrays, so the depth-first search
+ *   never allocates; the path grows only between two iterations, if the bound exceeds it;
+ * - The inverse of the last move is pruned (the inverse of a direction d is d^1);
+ * - The estimate is updated incrementally by the EightEstimator after each move;
+ *   by default it is the Manhattan distance plus linear conflicts (EightHeuristic);
+ * - The search can be cancelled by interrupting its thread: the flag is polled every
+ *   65536 expansions and the search throws a CancellationException;
+ * - A board that cannot be sorted is planned (plan): the moves that bring the hole
+ *   to the low-right corner, a flip, then the sorting moves, with the fewest moves in total.
+ *   It is the same search on the same arrays, with the flip as one more edge; after the flip
+ *   the estimate is the one of the plain search, before it the largest of the distance of the hole
+ *   from the corner and EightHeuristic without the conflicts of the lines the flip touches, minus 2:
+ *   that estimate changes by one per move, and a flip moves two tiles by one cell;
+ * - An instance is not thread-safe, each thread should own its solver.
+ *
+ * @author marco
+ */
+public final class EightIDASolver {
+    private static final int FOUND = -1;
+    private static final int CHECK = (1 << 16) - 1;     // expansions between two interruption checks
+
+    private final int row_length;
+    private final int size;
+    private final int[] delta;
+    private final byte[] legal;             // position -> mask of the legal directions
+    private final EightEstimator estimator;
+    private final int[] cells;              // position -> label-1
+    private final int[] where;              // label-1 -> position
+    private int hole;
+    private final EightHeuristic before;    // estimate before the flip of a plan
+    private byte[] path = new byte[128];
+    private int flip_at;                    // moves before the flip of the plan found
+    private long expanded;
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightIDASolver(int row_length){
+        this(row_length, new EightHeuristic(row_length));
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @param estimator the admissible estimate used to prune the search
+     */
+    public EightIDASolver(int row_length, EightEstimator estimator){
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.delta = new int[]{ -row_length, row_length, -1, 1 };
+        this.legal = EightLayout.legalMoves(row_length);
+        this.estimator = estimator;
+        this.before = estimator instanceof EightHeuristic ? (EightHeuristic) estimator : new EightHeuristic(row_length);
+        this.cells = new int[size];
+        this.where = new int[size];
+    }
+
+    /**
+     * @return the number of nodes expanded by the last search
+     */
+    public long getExpanded(){
+        return expanded;
+    }
+
+    /**
+     * @param layout positional layout, as generated by the board:
+     *               the i-th element is the label of the (i+1)-th tile
+     * @return the shortest sequence of moves of the hole that sorts the board,
+     *         null if the board cannot be sorted without flipping
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] solve(List<Integer> layout){
+        int[] a = new int[layout.size()];
+        for (int i=0; i < a.length; i++)
+            a[i] = layout.get(i);
+        return solve(a);
+    }
+
+    /**
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @return the shortest sequence of moves of the hole that sorts the board,
+     *         null if the board cannot be sorted without flipping
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] solve(int[] layout){
+        load(layout);
+        if (!EightLayout.isSolvable(cells, row_length))
+            return null;
+        return search();
+    }
+
+    /**
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @return the shortest plan that sorts the board: the directions of the hole and,
+     *         if the board cannot be sorted without flipping, a single EightHistory.FLIP
+     *         (with the hole at the low-right corner)
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] plan(int[] layout){
+        load(layout);
+        if (EightLayout.isSolvable(cells, row_length))
+            return search();
+
+        this.expanded = 0;
+        int e = before.estimate(cells, where);
+        // every plan has the parity of the distance of the hole from the corner:
+        // the moves after the flip bring the hole from the corner back to it
+        int parity = ((row_length-1 - hole/row_length) + (row_length-1 - hole%row_length)) & 1;
+        int h = estimate(e);
+        int bound = h + ((h - parity) & 1);
+        while (true){
+            if (bound+1 >= path.length)
+                path = new byte[2*(bound+1)];
+            int t = dfsFlip(0, e, bound, -1);
+            if (t == FOUND){
+                byte[] plan = new byte[bound+1];
+                System.arraycopy(path, 0, plan, 0, flip_at);
+                plan[flip_at] = EightHistory.FLIP;
+                System.arraycopy(path, flip_at, plan, flip_at+1, bound-flip_at);
+                return plan;
+            }
+            bound = t + ((t - parity) & 1);
+        }
+    }
+
+    /**
+     * Loads a layout in the arrays of the search
+     */
+    private void load(int[] layout){
+        if (layout.length != size)
+            throw new IllegalArgumentException("Wrong layout size: "+layout.length);
+        Arrays.fill(where, -1);
+        for (int p=0; p < size; p++){
+            int l = layout[p]-1;
+            if (l < 0 || l >= size || where[l] >= 0)
+                throw new IllegalArgumentException("Not a permutation: "+Arrays.toString(layout));
+            cells[p] = l;
+            where[l] = p;
+        }
+        this.hole = where[size-1];
+    }
+
+    /**
+     * IDA* on the loaded board, that can be sorted
+     */
+    private byte[] search(){
+        this.expanded = 0;
+        int h = estimator.estimate(cells, where);
+        int bound = h;
+        while (true){
+            if (bound >= path.length)
+                path = new byte[2*bound];
+            int t = dfs(0, h, bound, -1);
+            if (t == FOUND)
+                return Arrays.copyOf(path, bound);
+            bound = t;
+        }
+    }
+
+    /**
+     * Depth-first search bounded by f = g+h
+     * @param g the number of moves from the root
+     * @param h the estimate of the current board
+     * @param bound the bound of this iteration
+     * @param last the last move, -1 at the root
+     * @return FOUND if the board is sorted, the least f exceeding the bound otherwise
+     */
+    private int dfs(int g, int h, int bound, int last){
+        int f = g+h;
+        if (f > bound)
+            return f;
+        if (h == 0)
+            return FOUND;
+        if ((++expanded & CHECK) == 0 && Thread.currentThread().isInterrupted())
+            throw new CancellationException("Search interrupted");
+
+        int min = Integer.MAX_VALUE;
+        int mask = legal[hole];
+        if (last >= 0)
+            mask &= ~(1 << (last^1));
+        for (int dir=0; dir < 4; dir++){
+            if ((mask & (1 << dir)) == 0)
+                continue;
+            int blank = hole;
+            int tile = blank + delta[dir];
+            int l = cells[tile];
+
+            // make
+            cells[blank] = l;
+            cells[tile] = size-1;
+            where[l] = blank;
+            where[size-1] = tile;
+            hole = tile;
+            path[g] = (byte) dir;
+
+            int t = dfs(g+1, h + estimator.delta(cells, where, tile, blank), bound, dir);
+
+            // unmake
+            cells[tile] = l;
+            cells[blank] = size-1;
+            where[l] = tile;
+            where[size-1] = blank;
+            hole = blank;
+
+            if (t == FOUND)
+                return FOUND;
+            if (t < min)
+                min = t;
+        }
+        return min;
+    }
+
+    /**
+     * Depth-first search bounded by f = g+h before the flip: the flip is tried
+     * whenever the hole is at the corner, then the plain search follows
+     * @param e the estimate of EightHeuristic of the current board
+     * @return FOUND if a plan is found (flip_at is its flip), the least f exceeding the bound otherwise
+     */
+    private int dfsFlip(int g, int e, int bound, int last){
+        int f = g + estimate(e);
+        if (f > bound)
+            return f;
+        if ((++expanded & CHECK) == 0 && Thread.currentThread().isInterrupted())
+            throw new CancellationException("Search interrupted");
+
+        int min = Integer.MAX_VALUE;
+        if (hole == size-1){
+            swap(0, 1);
+            int t = dfs(g, estimator.estimate(cells, where), bound, -1);
+            swap(0, 1);
+            if (t == FOUND){
+                flip_at = g;
+                return FOUND;
+            }
+            min = t;
+        }
+
+        int mask = legal[hole];
+        if (last >= 0)
+            mask &= ~(1 << (last^1));
+        for (int dir=0; dir < 4; dir++){
+            if ((mask & (1 << dir)) == 0)
+                continue;
+            int blank = hole;
+            int tile = blank + delta[dir];
+            int l = cells[tile];
+
+            // make
+            cells[blank] = l;
+            cells[tile] = size-1;
+            where[l] = blank;
+            where[size-1] = tile;
+            hole = tile;
+            path[g] = (byte) dir;
+
+            int t = dfsFlip(g+1, e + before.delta(cells, where, tile, blank), bound, dir);
+
+            // unmake
+            cells[tile] = l;
+            cells[blank] = size-1;
+            where[l] = tile;
+            where[size-1] = blank;
+            hole = blank;
+
+            if (t == FOUND)
+                return FOUND;
+            if (t < min)
+                min = t;
+        }
+        return min;
+    }
+
+    /**
+     * @return the estimate of a plan before the flip, from the estimate of EightHeuristic
+     */
+    private int estimate(int e){
+        int corner = (row_length-1 - hole/row_length) + (row_length-1 - hole%row_length);
+        return Math.max(corner, e - before.flipConflicts(cells) - 2);
+    }
+
+    /**
+     * Swaps the tiles in two positions (a flip, if they are the first two)
+     */
+    private void swap(int a, int b){
+        int la = cells[a], lb = cells[b];
+        cells[a] = lb;
+        cells[b] = la;
+        where[lb] = a;
+        where[la] = b;
+    }
+}
@@ -0,0 +1,446 @@
+package ap.eightpuzzle;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only journal of the games played on a board: restarts, accepted moves and flips.
+ *
+ * File format: a 12 bytes header (magic, version, row length) followed by blocks:
+ * - 'R' state: a restart with a new configuration;
+ * - 'C' count state: a checkpoint, the configuration after count moves since the restart;
+ * - 'M' n bits: n moves, 2 bits each (first move in the low bits), 4 moves per byte.
+ * The state is the packed long up to 16 cells, otherwise an int per cell (label-1 by position).
+ *
+ * Design choices:
+ * - A move is the direction of the hole (EightLayout.UP, DOWN, LEFT, RIGHT);
+ *   a flip is allowed only with the hole at the low-right corner, where RIGHT is never legal:
+ *   so a flip is written as RIGHT and the journal needs no more than 2 bits per event;
+ * - The journal keeps its own copy of the board, so it writes a checkpoint of the packed state
+ *   every CHECKPOINT moves without asking the controller: a replay verifies them
+ *   and detects a corrupted or truncated journal;
+ * - The blocks are written through a FileChannel with a fixed buffer, and only whole blocks
+ *   reach the file when the buffer is drained: opening an existing journal drops a partial
+ *   last block (e.g. after a crash) and appends after the last whole one;
+ * - The replay applies the moves to an EightLayout, millions per second, and can notify them
+ *   as the events of an EightBus (e.g. to a board) and stop after any number of moves;
+ * - The recording methods are invoked by the controller, which cannot throw checked exceptions:
+ *   they throw UncheckedIOException.
+ *
+ * @author marco
+ */
+public final class EightJournal implements Closeable, Flushable {
+    static final int MAGIC = 0x38505A4A;             // "8PZJ"
+    static final int VERSION = 1;
+    static final int HEADER = 12;
+    static final int CHECKPOINT = 1 << 16;          // moves between two checkpoints
+    private static final int BLOCK = 1 << 13;       // moves of a full 'M' block
+    private static final int BUFFER = 1 << 16;      // bytes of the file buffer
+
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.BIG_ENDIAN);
+    private final EightLayout board;
+    private final byte[] pending = new byte[BLOCK/4];       // moves not yet in the buffer
+    private int count;                                      // moves in pending
+    private long moves;                                     // moves since the last restart
+    private boolean started;
+
+    private EightJournal(FileChannel ch, int row_length){
+        this.ch = ch;
+        this.board = new EightLayout(row_length);
+    }
+
+    /**
+     * Opens a journal for appending, creating it if it does not exist
+     * @param file the journal
+     * @param row_length the number of tiles in a row
+     * @return the journal: the first event recorded must be a restart
+     * @throws IOException if the file cannot be opened or it is the journal of another board
+     */
+    public static EightJournal open(Path file, int row_length) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE);
+        try {
+            EightJournal j = new EightJournal(ch, row_length);
+            if (ch.size() == 0){
+                j.buf.putInt(MAGIC).putInt(VERSION).putInt(row_length);
+                j.drain();
+            }
+            else{
+                // truncate a partial last block, then append
+                long end = scan(ch, row_length);
+                ch.truncate(end);
+                ch.position(end);
+            }
+            return j;
+        }
+        catch (IOException | RuntimeException e){
+            ch.close();
+            throw e;
+        }
+    }
+
+    /********** Recording **********/
+
+    /**
+     * Records a restart
+     * @param layout the new configuration
+     */
+    public void restart(EightLayout layout){
+        try {
+            board.reset(layout.toArray(new int[board.getSize()]));
+            endMoves();
+            reserve(1 + stateBytes());
+            buf.put((byte) 'R');
+            putState();
+            this.moves = 0;
+            this.started = true;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records an accepted move
+     * @param dir the direction in which the hole slid
+     */
+    public void move(int dir){
+        if (!started)
+            throw new IllegalStateException("No restart recorded");
+        if (!board.canMove(dir))
+            throw new IllegalArgumentException("Illegal move "+dir+" on "+board);
+        board.move(dir);
+        append(dir);
+    }
+
+    /**
+     * Records an accepted flip
+     */
+    public void flip(){
+        if (!started)
+            throw new IllegalStateException("No restart recorded");
+        if (!board.canFlip())
+            throw new IllegalArgumentException("Illegal flip on "+board);
+        board.flip();
+        append(EightLayout.RIGHT);
+    }
+
+    /**
+     * @return the number of moves and flips since the last restart
+     */
+    public long getMoves(){
+        return moves;
+    }
+
+    /**
+     * Writes the recorded events to the file
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        endMoves();
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally{
+            ch.close();
+        }
+    }
+
+    /********** Replay **********/
+
+    /**
+     * Replays a whole journal
+     * @param file the journal
+     * @return the configuration at the end of the journal
+     * @throws IOException if the file cannot be read or it is corrupted
+     */
+    public static EightLayout replay(Path file) throws IOException {
+        return replay(file, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Replays the first events of a journal
+     * @param file the journal
+     * @param limit the number of moves and flips to replay, from the beginning of the journal
+     * @param listener notified of the restarts, moves and flips, as by the bus of a board; may be null
+     * @return the configuration after limit moves (or at the end of the journal)
+     * @throws IOException if the file cannot be read or it is corrupted
+     */
+    public static EightLayout replay(Path file, long limit, EightBus.Listener listener) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            Reader r = new Reader(ch);
+            int row_length = header(r);
+            EightLayout board = new EightLayout(row_length);
+            int[] layout = new int[board.getSize()];
+            boolean started = false;
+            long done = 0, moves = 0;
+
+            while (done < limit && r.more()){
+                byte tag = r.get();
+                switch (tag){
+                    case 'R':
+                        try {
+                            board.reset(getState(r, layout));
+                        }
+                        catch (IllegalArgumentException e){
+                            throw new IOException("Corrupted journal: "+e.getMessage());
+                        }
+                        started = true;
+                        moves = 0;
+                        if (listener != null)
+                            listener.restarted(layout);
+                        break;
+                    case 'C':
+                        long at = r.getLong();
+                        getState(r, layout);
+                        if (at != moves || !same(board, layout))
+                            throw new IOException("Corrupted journal: checkpoint at move "+at+" does not match");
+                        break;
+                    case 'M':
+                        if (!started)
+                            throw new IOException("Corrupted journal: moves before a restart");
+                        int n = r.getShort() & 0xFFFF, b = 0;
+                        for (int i=0; i < n && done < limit; i++, done++, moves++){
+                            if ((i & 3) == 0)
+                                b = r.get();
+                            int dir = (b >>> ((i & 3) << 1)) & 3;
+                            apply(board, dir, listener);
+                        }
+                        break;
+                    default:
+                        throw new IOException("Corrupted journal: unknown block "+tag);
+                }
+            }
+            return board;
+        }
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * Applies a recorded event: RIGHT with the hole at the low-right corner is a flip
+     */
+    private static void apply(EightLayout board, int dir, EightBus.Listener listener) throws IOException {
+        if (dir == EightLayout.RIGHT && board.canFlip()){
+            board.flip();
+            if (listener != null)
+                listener.flipped();
+            return;
+        }
+        if (!board.canMove(dir))
+            throw new IOException("Corrupted journal: illegal move "+dir+" on "+board);
+        int hole = board.hole();
+        int label = board.move(dir);
+        if (listener != null)
+            listener.moved(label, hole);
+    }
+
+    private void append(int dir){
+        pending[count >>> 2] |= (byte) (dir << ((count & 3) << 1));
+        moves++;
+        try {
+            if (++count == BLOCK)
+                endMoves();
+            if (moves % CHECKPOINT == 0){
+                endMoves();
+                reserve(1 + 8 + stateBytes());
+                buf.put((byte) 'C').putLong(moves);
+                putState();
+            }
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves the pending moves to the buffer, as an 'M' block
+     */
+    private void endMoves() throws IOException {
+        if (count == 0)
+            return;
+        int bytes = (count+3) >>> 2;
+        reserve(3 + bytes);
+        buf.put((byte) 'M').putShort((short) count).put(pending, 0, bytes);
+        Arrays.fill(pending, 0, bytes, (byte) 0);
+        count = 0;
+    }
+
+    private int stateBytes(){
+        return board.isPacked() ? 8 : 4*board.getSize();
+    }
+
+    private void putState() throws IOException {
+        if (board.isPacked()){
+            buf.putLong(board.getPacked());
+            return;
+        }
+        for (int p=1; p <= board.getSize(); p++){
+            if (buf.remaining() < 4)
+                drain();
+            buf.putInt(board.label(p)-1);
+        }
+    }
+
+    /**
+     * Makes room in the buffer for a block of n bytes (or drains it, if the block is larger)
+     */
+    private void reserve(int n) throws IOException {
+        if (buf.remaining() < Math.min(n, BUFFER))
+            drain();
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Reads a state in layout (labels in [1, size])
+     */
+    private static int[] getState(Reader r, int[] layout) throws IOException {
+        int size = layout.length;
+        if (size <= EightLayout.MAX_SIZE){
+            long cells = r.getLong();
+            for (int p=0; p < size; p++)
+                layout[p] = EightLayout.nibble(cells, p)+1;
+        }
+        else
+            for (int p=0; p < size; p++)
+                layout[p] = r.getInt()+1;
+        return layout;
+    }
+
+    private static boolean same(EightLayout board, int[] layout){
+        for (int p=1; p <= layout.length; p++)
+            if (board.label(p) != layout[p-1])
+                return false;
+        return true;
+    }
+
+    private static int header(Reader r) throws IOException {
+        if (r.getInt() != MAGIC || r.getInt() != VERSION)
+            throw new IOException("Not a journal of version "+VERSION);
+        int row_length = r.getInt();
+        if (row_length < 2 || row_length > EightLayout.MAX_SIDE)
+            throw new IOException("Corrupted journal: board of side "+row_length);
+        return row_length;
+    }
+
+    /**
+     * Skips the whole blocks of a journal
+     * @return the offset of the end of the last whole block
+     */
+    private static long scan(FileChannel ch, int row_length) throws IOException {
+        ch.position(0);
+        Reader r = new Reader(ch);
+        if (header(r) != row_length)
+            throw new IOException("Journal of another board");
+        int size = row_length*row_length;
+        int state = size <= EightLayout.MAX_SIZE ? 8 : 4*size;
+        long end = HEADER;
+        try {
+            while (r.more()){
+                byte tag = r.get();
+                switch (tag){
+                    case 'R': r.skip(state); break;
+                    case 'C': r.skip(8 + state); break;
+                    case 'M': r.skip(((r.getShort() & 0xFFFF) + 3) >>> 2); break;
+                    default: throw new IOException("Corrupted journal: unknown block "+tag);
+                }
+                end = r.offset();
+            }
+        }
+        catch (EOFException e){
+            // partial last block
+        }
+        return end;
+    }
+
+    /**
+     * Buffered big-endian reader of a FileChannel
+     */
+    private static final class Reader {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.BIG_ENDIAN);
+        private long offset;                        // offset of the first byte of buf
+
+        Reader(FileChannel ch){
+            this.ch = ch;
+            buf.flip();
+        }
+
+        boolean more() throws IOException {
+            return fill(1);
+        }
+
+        long offset(){
+            return offset + buf.position();
+        }
+
+        byte get() throws IOException {
+            need(1);
+            return buf.get();
+        }
+
+        short getShort() throws IOException {
+            need(2);
+            return buf.getShort();
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            need(8);
+            return buf.getLong();
+        }
+
+        void skip(long n) throws IOException {
+            while (n > 0){
+                need(1);
+                int k = (int) Math.min(n, buf.remaining());
+                buf.position(buf.position()+k);
+                n -= k;
+            }
+        }
+
+        private void need(int n) throws IOException {
+            if (!fill(n))
+                throw new EOFException("Truncated journal");
+        }
+
+        /**
+         * @return true if at least n bytes are available
+         */
+        private boolean fill(int n) throws IOException {
+            if (buf.remaining() >= n)
+                return true;
+            offset += buf.position();
+            buf.compact();
+            while (buf.position() < n && ch.read(buf) >= 0);
+            buf.flip();
+            return buf.remaining() >= n;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package ap.eightpuzzle;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headless model of the board, used by the controller to check and apply the moves.
+ *
+ * Design choices:
+ * - Up to 16 cells (the 15 version) the whole configuration is packed in two longs, 4 bits per cell:
+ *   cells maps position -> label, where maps label -> position (both stored 0-based),
+ *   so that both the tile's view (by position) and the controller's view (by label)
+ *   are a shift and a mask away;
+ * - Larger boards, up to MAX_SIDE x MAX_SIDE, keep the same two maps in int arrays:
+ *   the lookups stay O(1), only getPacked() is not available;
+ * - The position of the hole is cached, so the legality of a move is a couple of comparisons;
+ * - A move is identified by the direction in which the hole slides (UP, DOWN, LEFT, RIGHT),
+ *   encoded in 2 bits such that the inverse of a move d is d^1;
+ * - The public methods take positions and labels in [1, size], as the beans do;
+ * - No method allocates, except the constructors (and isSolvable() on the boards that are not packed).
+ *
+ * @author marco
+ */
+public final class EightLayout implements Serializable {
+    public static final int UP = 0;
+    public static final int DOWN = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+    public static final int MAX_SIZE = 16;                  // cells of the packed boards
+    public static final int MAX_SIDE = 1024;
+
+    private final int row_length;
+    private final int size;
+    private final int hole_label;
+    private final int[] delta;              // position offset of the hole for each direction
+    private final byte[] legal;             // position -> mask of the legal directions
+    private long cells;                     // position -> label-1
+    private long where;                     // label-1 -> position
+    private final int[] wide_cells;         // same as cells if the board is not packed, null otherwise
+    private final int[] wide_where;         // same as where if the board is not packed, null otherwise
+    private int hole;                       // current position of the hole
+
+    /**
+     * Creates a sorted board of row_length x row_length cells
+     * @param row_length the number of tiles in a row
+     */
+    public EightLayout(int row_length){
+        if (row_length < 2 || row_length > MAX_SIDE)
+            throw new IllegalArgumentException("Unsupported board of side "+row_length);
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.hole_label = size;
+        this.delta = new int[]{ -row_length, row_length, -1, 1 };
+        this.legal = legalMoves(row_length);
+        this.wide_cells = size > MAX_SIZE ? new int[size] : null;
+        this.wide_where = size > MAX_SIZE ? new int[size] : null;
+        this.reset();
+    }
+
+    /**
+     * Copy constructor
+     * @param other the layout to copy
+     */
+    public EightLayout(EightLayout other){
+        this(other.row_length);
+        this.cells = other.cells;
+        this.where = other.where;
+        this.hole = other.hole;
+        if (wide_cells != null){
+            System.arraycopy(other.wide_cells, 0, wide_cells, 0, size);
+            System.arraycopy(other.wide_where, 0, wide_where, 0, size);
+        }
+    }
+
+    /********** Getters **********/
+
+    public int getRowLength(){
+        return row_length;
+    }
+
+    public int getSize(){
+        return size;
+    }
+
+    public int getHoleLabel(){
+        return hole_label;
+    }
+
+    /**
+     * @return true if the board fits in getPacked(), i.e. it has at most MAX_SIZE cells
+     */
+    public boolean isPacked(){
+        return wide_cells == null;
+    }
+
+    /**
+     * @return the packed configuration: the i-th nibble is the label-1 of the tile in position i+1
+     * @throws UnsupportedOperationException if the board has more than MAX_SIZE cells
+     */
+    public long getPacked(){
+        if (wide_cells != null)
+            throw new UnsupportedOperationException("A board of "+size+" cells cannot be packed");
+        return cells;
+    }
+
+    /**
+     * @return the position of the hole, in [1, size]
+     */
+    public int hole(){
+        return hole+1;
+    }
+
+    /**
+     * @param position a position in [1, size]
+     * @return the label of the tile in that position
+     */
+    public int label(int position){
+        return at(position-1)+1;
+    }
+
+    /**
+     * @param label a label in [1, size]
+     * @return the position of the tile with that label
+     */
+    public int position(int label){
+        return find(label-1)+1;
+    }
+
+    /********** Restart **********/
+
+    /**
+     * Restores the sorted configuration
+     */
+    public void reset(){
+        this.hole = size-1;
+        if (wide_cells != null){
+            for (int p=0; p < size; p++)
+                wide_cells[p] = wide_where[p] = p;
+            return;
+        }
+        long c = 0;
+        for (int p=0; p < size; p++)
+            c |= (long) p << (p << 2);
+        this.cells = c;
+        this.where = c;
+    }
+
+    /**
+     * Restores a given configuration
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @throws IllegalArgumentException if layout is not a permutation of [1, size]
+     */
+    public void reset(List<Integer> layout){
+        int[] a = new int[layout.size()];
+        for (int i=0; i < a.length; i++)
+            a[i] = layout.get(i);
+        this.reset(a);
+    }
+
+    /**
+     * Restores a given configuration
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @throws IllegalArgumentException if layout is not a permutation of [1, size]
+     */
+    public void reset(int[] layout){
+        if (layout.length != size)
+            throw new IllegalArgumentException("Wrong layout size: "+layout.length);
+        if (wide_cells != null){
+            resetWide(layout);
+            return;
+        }
+        long c = 0, w = 0;
+        int seen = 0;
+        for (int p=0; p < size; p++){
+            int l = layout[p]-1;
+            if (l < 0 || l >= size || (seen & (1 << l)) != 0)
+                throw new IllegalArgumentException("Not a permutation: "+Arrays.toString(layout));
+            seen |= 1 << l;
+            c |= (long) l << (p << 2);
+            w |= (long) p << (l << 2);
+        }
+        this.cells = c;
+        this.where = w;
+        this.hole = nibble(w, hole_label-1);
+    }
+
+    /**
+     * Same as reset(int[]) for the boards that are not packed; where is the set of the labels seen,
+     * restored from cells if the layout is not a permutation
+     */
+    private void resetWide(int[] layout){
+        Arrays.fill(wide_where, -1);
+        for (int p=0; p < size; p++){
+            int l = layout[p]-1;
+            if (l < 0 || l >= size || wide_where[l] >= 0){
+                for (int q=0; q < size; q++)
+                    wide_where[wide_cells[q]] = q;
+                throw new IllegalArgumentException("Not a permutation of [1, "+size+"] at position "+(p+1));
+            }
+            wide_where[l] = p;
+        }
+        for (int p=0; p < size; p++)
+            wide_cells[p] = layout[p]-1;
+        this.hole = wide_where[hole_label-1];
+    }
+
+    /********** Moves **********/
+
+    /**
+     * @return the mask of the directions in which the hole can slide (bit d set iff d is legal)
+     */
+    public int moves(){
+        return legal[hole];
+    }
+
+    /**
+     * @param dir a direction
+     * @return true if the hole can slide in direction dir
+     */
+    public boolean canMove(int dir){
+        return (legal[hole] & (1 << dir)) != 0;
+    }
+
+    /**
+     * Finds the move that slides a given tile on the hole
+     * @param label the label of the tile to move
+     * @return the direction in which the hole slides,
+     *         -1 if the tile is the hole, it is not adjacent to the hole or the label is not in [1, size]
+     */
+    public int direction(int label){
+        if (label < 1 || label > size)
+            return -1;
+        int d = find(label-1) - hole;
+        int mask = legal[hole];
+        if (d == -row_length)   return (mask & (1 << UP)) != 0 ? UP : -1;
+        if (d == row_length)    return (mask & (1 << DOWN)) != 0 ? DOWN : -1;
+        if (d == -1)            return (mask & (1 << LEFT)) != 0 ? LEFT : -1;
+        if (d == 1)             return (mask & (1 << RIGHT)) != 0 ? RIGHT : -1;
+        return -1;
+    }
+
+    /**
+     * @param dir a legal direction
+     * @return the label of the tile that the move dir slides on the hole
+     */
+    public int neighbour(int dir){
+        return at(hole + delta[dir])+1;
+    }
+
+    /**
+     * A move is legal if the tile is not the hole and it is adjacent to the hole
+     * @param label the label of the tile moved, any int
+     * @return true if the move is legal, false otherwise (also for a label out of [1, size])
+     */
+    public boolean isLegal(int label){
+        return label != hole_label && direction(label) >= 0;
+    }
+
+    /**
+     * Slides the hole in a given direction, without checking it
+     * @param dir a legal direction
+     * @return the label of the tile moved on the old hole
+     */
+    public int move(int dir){
+        int tile = hole + delta[dir];
+        if (wide_cells != null){
+            int label = wide_cells[tile];
+            wide_cells[hole] = label;
+            wide_cells[tile] = hole_label-1;
+            wide_where[label] = hole;
+            wide_where[hole_label-1] = tile;
+            this.hole = tile;
+            return label+1;
+        }
+        int label = nibble(cells, tile);
+        long x = label ^ (hole_label-1);
+        this.cells ^= (x << (hole << 2)) | (x << (tile << 2));
+        x = hole ^ tile;
+        this.where ^= (x << (label << 2)) | (x << ((hole_label-1) << 2));
+        this.hole = tile;
+        return label+1;
+    }
+
+    /**
+     * Reverts a move
+     * @param dir the direction of the move to revert
+     * @return the label of the tile moved back
+     */
+    public int undo(int dir){
+        return move(dir ^ 1);
+    }
+
+    /**
+     * @return true if the hole is at the low-right corner, i.e. the flip is allowed
+     */
+    public boolean canFlip(){
+        return hole == size-1;
+    }
+
+    /**
+     * Swaps the tiles in position 1 and 2, without checking the hole
+     */
+    public void flip(){
+        if (wide_cells != null){
+            int a = wide_cells[0], b = wide_cells[1];
+            wide_cells[0] = b;
+            wide_cells[1] = a;
+            wide_where[a] = 1;
+            wide_where[b] = 0;
+            return;
+        }
+        int a = nibble(cells, 0), b = nibble(cells, 1);
+        long x = a ^ b;
+        this.cells ^= x | (x << 4);
+        this.where ^= (1L << (a << 2)) | (1L << (b << 2));
+    }
+
+    /**
+     * @return true if each tile is in its position
+     */
+    public boolean isSolved(){
+        if (wide_cells != null){
+            for (int p=0; p < size; p++)
+                if (wide_cells[p] != p)
+                    return false;
+            return true;
+        }
+        return cells == solved(size);
+    }
+
+    /**
+     * A board can be sorted iff the parity of its permutation equals the parity
+     * of the distance of the hole from the low-right corner: every move is a transposition
+     * and changes that distance by one
+     * @return true if the board can be sorted without flipping
+     */
+    public boolean isSolvable(){
+        return wide_cells != null ? isSolvable(wide_cells, row_length) : isSolvable(cells, row_length);
+    }
+
+    /**
+     * Same as isSolvable(), for a packed board
+     * @param cells a packed configuration
+     * @param row_length the number of tiles in a row
+     * @return true if the board can be sorted without flipping
+     */
+    static boolean isSolvable(long cells, int row_length){
+        int size = row_length*row_length, seen = 0, cycles = 0, hole = 0;
+        for (int p=0; p < size; p++){
+            if (nibble(cells, p) == size-1)
+                hole = p;
+            if ((seen & (1 << p)) != 0)
+                continue;
+            cycles++;
+            for (int q=p; (seen & (1 << q)) == 0; q = nibble(cells, q))
+                seen |= 1 << q;
+        }
+        int distance = (row_length-1 - hole/row_length) + (row_length-1 - hole%row_length);
+        return ((size - cycles) & 1) == (distance & 1);
+    }
+
+    /**
+     * Same as isSolvable(), for boards of any side
+     * @param cells position -> label-1, the hole is the label size-1
+     * @param row_length the number of tiles in a row
+     * @return true if the board can be sorted without flipping
+     */
+    static boolean isSolvable(int[] cells, int row_length){
+        int size = cells.length, cycles = 0, hole = -1;
+        boolean[] seen = new boolean[size];
+        for (int p=0; p < size; p++){
+            if (cells[p] == size-1)
+                hole = p;
+            if (seen[p])
+                continue;
+            cycles++;
+            for (int q=p; !seen[q]; q = cells[q])
+                seen[q] = true;
+        }
+        int distance = (row_length-1 - hole/row_length) + (row_length-1 - hole%row_length);
+        return ((size - cycles) & 1) == (distance & 1);
+    }
+
+    /**
+     * Copies the positional layout in a given array
+     * @param dst array of at least size elements: the i-th is the label of the (i+1)-th tile
+     * @return dst
+     */
+    public int[] toArray(int[] dst){
+        for (int p=0; p < size; p++)
+            dst[p] = at(p)+1;
+        return dst;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for (int p=0; p < size; p++)
+            sb.append(p == 0 ? "[" : ", ").append(at(p)+1);
+        return sb.append("]").toString();
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return the label-1 of the tile in the 0-based position p
+     */
+    private int at(int p){
+        return wide_cells != null ? wide_cells[p] : nibble(cells, p);
+    }
+
+    /**
+     * @return the 0-based position of the tile with label l+1
+     */
+    private int find(int l){
+        return wide_where != null ? wide_where[l] : nibble(where, l);
+    }
+
+    /**
+     * @return the i-th nibble of w
+     */
+    static int nibble(long w, int i){
+        return (int) (w >>> (i << 2)) & 0xF;
+    }
+
+    /**
+     * Slides a tile on the hole of a packed configuration
+     * @param cells a packed configuration
+     * @param hole the 0-based position of the hole
+     * @param tile the 0-based position of the tile, adjacent to the hole
+     * @param size the number of cells
+     * @return the packed configuration after the move
+     */
+    static long slide(long cells, int hole, int tile, int size){
+        long x = nibble(cells, tile) ^ (size-1);
+        return cells ^ (x << (hole << 2)) ^ (x << (tile << 2));
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @return for each 0-based position of the hole, the mask of the legal directions
+     */
+    static byte[] legalMoves(int row_length){
+        int size = row_length*row_length;
+        byte[] legal = new byte[size];
+        for (int p=0; p < size; p++){
+            int mask = 0;
+            if (p >= row_length)                    mask |= 1 << UP;
+            if (p < size-row_length)                mask |= 1 << DOWN;
+            if (p % row_length != 0)                mask |= 1 << LEFT;
+            if (p % row_length != row_length-1)     mask |= 1 << RIGHT;
+            legal[p] = (byte) mask;
+        }
+        return legal;
+    }
+
+    /**
+     * @return the packed sorted configuration of a board of n cells
+     */
+    static long solved(int n){
+        return n == MAX_SIZE ? 0xFEDCBA9876543210L : 0xFEDCBA9876543210L & ((1L << (n << 2)) - 1);
+    }
+}
@@ -0,0 +1,210 @@
+package ap.eightpuzzle;
+
+/**
+ * Distance of a board from the sorted one, kept up to date move by move:
+ * Manhattan distance, linear conflicts, misplaced tiles and parity of the inversions.
+ *
+ * The inversions are counted on the tiles in reading order, without the hole;
+ * the linear conflicts are the ones of EightHeuristic, on boards of any side.
+ *
+ * Design choices:
+ * - The metrics are computed from scratch only at a restart; a move changes the position
+ *   of a single tile, so the Manhattan distance and the misplaced tiles change by the terms
+ *   of that tile, and only three lines (rows or columns) may change their conflicts:
+ *   the conflicts of every line are cached, and only those three are recomputed;
+ * - A horizontal move does not change the order of the tiles, a vertical one moves a tile
+ *   over row_length-1 others: the parity changes iff row_length is even; a flip always changes it;
+ * - The conflicts of a line are 2*(k - lis), where the longest increasing subsequence
+ *   is computed by patience sorting in a scratch array: O(row_length log row_length) per line,
+ *   no allocation.
+ *
+ * @author marco
+ */
+public final class EightMetrics {
+    private final int row_length;
+    private final int size;
+    private final int[] row_conflicts;              // row -> linear conflicts
+    private final int[] col_conflicts;              // column -> linear conflicts
+    private final int[] tails;                      // scratch of the patience sorting
+    private int manhattan;
+    private int conflicts;
+    private int misplaced;
+    private int parity;
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightMetrics(int row_length){
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.row_conflicts = new int[row_length];
+        this.col_conflicts = new int[row_length];
+        this.tails = new int[row_length];
+    }
+
+    /**
+     * @return the sum of the Manhattan distances of the tiles from their positions
+     */
+    public int getManhattan(){
+        return manhattan;
+    }
+
+    /**
+     * @return the linear conflicts, i.e. the moves to add to the Manhattan distance
+     */
+    public int getConflicts(){
+        return conflicts;
+    }
+
+    /**
+     * @return the number of tiles (the hole excluded) out of their position
+     */
+    public int getMisplaced(){
+        return misplaced;
+    }
+
+    /**
+     * @return the parity of the inversions of the tiles: 0 if even, 1 if odd
+     */
+    public int getParity(){
+        return parity;
+    }
+
+    /********** Updates **********/
+
+    /**
+     * Computes the metrics of a new board from scratch
+     * @param board the board restarted
+     */
+    public void reset(EightLayout board){
+        manhattan = misplaced = conflicts = 0;
+        int cycles = 0;
+        boolean[] seen = new boolean[size];
+        for (int p=0; p < size; p++){
+            int l = board.label(p+1)-1;
+            if (l != size-1){
+                manhattan += distance(l, p);
+                if (l != p)
+                    misplaced++;
+            }
+            if (seen[p])
+                continue;
+            cycles++;
+            for (int q=p; !seen[q]; q = board.label(q+1)-1)
+                seen[q] = true;
+        }
+        // parity of the permutation, plus the swaps that bring the hole to the last position
+        parity = ((size - cycles) + (size - board.hole())) & 1;
+        for (int i=0; i < row_length; i++){
+            conflicts += row_conflicts[i] = row(board, i);
+            conflicts += col_conflicts[i] = col(board, i);
+        }
+    }
+
+    /**
+     * Updates the metrics after a move
+     * @param board the board, after the move
+     * @param dir the direction in which the hole slid
+     */
+    public void moved(EightLayout board, int dir){
+        int from = board.hole()-1;                      // the new hole
+        int to = from + (dir == EightLayout.UP ? row_length : dir == EightLayout.DOWN ? -row_length :
+                         dir == EightLayout.LEFT ? 1 : -1);
+        int l = board.label(to+1)-1;
+        manhattan += distance(l, to) - distance(l, from);
+        misplaced += (l != to ? 1 : 0) - (l != from ? 1 : 0);
+        if (dir <= EightLayout.DOWN){
+            parity ^= (row_length-1) & 1;
+            updateCol(board, from % row_length);
+            updateRow(board, from / row_length);
+            updateRow(board, to / row_length);
+        }
+        else{
+            updateRow(board, from / row_length);
+            updateCol(board, from % row_length);
+            updateCol(board, to % row_length);
+        }
+    }
+
+    /**
+     * Updates the metrics after a flip (the hole is at the low-right corner)
+     * @param board the board, after the flip
+     */
+    public void flipped(EightLayout board){
+        int a = board.label(1)-1, b = board.label(2)-1;
+        manhattan += distance(a, 0) + distance(b, 1) - distance(a, 1) - distance(b, 0);
+        misplaced += (a != 0 ? 1 : 0) + (b != 1 ? 1 : 0) - (a != 1 ? 1 : 0) - (b != 0 ? 1 : 0);
+        parity ^= 1;
+        updateRow(board, 0);
+        updateCol(board, 0);
+        updateCol(board, 1);
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return the Manhattan distance of the 0-based label l from the 0-based position p
+     */
+    private int distance(int l, int p){
+        return Math.abs(l/row_length - p/row_length) + Math.abs(l%row_length - p%row_length);
+    }
+
+    private void updateRow(EightLayout board, int r){
+        int c = row(board, r);
+        conflicts += c - row_conflicts[r];
+        row_conflicts[r] = c;
+    }
+
+    private void updateCol(EightLayout board, int c){
+        int k = col(board, c);
+        conflicts += k - col_conflicts[c];
+        col_conflicts[c] = k;
+    }
+
+    /**
+     * @return the linear conflicts of the r-th row
+     */
+    private int row(EightLayout board, int r){
+        int k = 0, lis = 0;
+        for (int c=0; c < row_length; c++){
+            int l = board.label(r*row_length+c+1)-1;
+            if (l != size-1 && l/row_length == r){
+                k++;
+                lis = extend(lis, l%row_length);
+            }
+        }
+        return 2*(k-lis);
+    }
+
+    /**
+     * @return the linear conflicts of the c-th column
+     */
+    private int col(EightLayout board, int c){
+        int k = 0, lis = 0;
+        for (int r=0; r < row_length; r++){
+            int l = board.label(r*row_length+c+1)-1;
+            if (l != size-1 && l%row_length == c){
+                k++;
+                lis = extend(lis, l/row_length);
+            }
+        }
+        return 2*(k-lis);
+    }
+
+    /**
+     * Patience sorting step: tails[i] is the least tail of an increasing subsequence of length i+1
+     * @return the new length of the longest increasing subsequence
+     */
+    private int extend(int lis, int x){
+        int lo = 0, hi = lis;
+        while (lo < hi){
+            int mid = (lo+hi) >>> 1;
+            if (tails[mid] < x)
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        tails[lo] = x;
+        return lo == lis ? lis+1 : lis;
+    }
+}
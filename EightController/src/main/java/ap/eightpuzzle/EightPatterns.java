@@ -0,0 +1,434 @@
+package ap.eightpuzzle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Additive disjoint pattern databases: an EightEstimator for the 15 version and larger boards.
+ *
+ * Design choices:
+ * - The tiles are partitioned in disjoint patterns (e.g. 6-6-3 for the 15 version);
+ *   for each pattern, a table stores the number of moves *of the pattern's tiles* needed
+ *   to bring them home, for every placement of them. The other tiles are indistinguishable,
+ *   so the moves counted by different patterns are disjoint and the values can be summed;
+ * - A table is computed by a parallel 0-1 breadth-first search (EightBFS) on
+ *   <positions of the pattern, hole>, where sliding the hole on a tile outside the pattern
+ *   costs nothing, then minimized over the position of the hole;
+ * - A placement is indexed by the rank of its partial permutation of the positions;
+ *   with the hole as the last element, the placements that differ only by the hole
+ *   are consecutive in the search and collapse in a single entry of the table;
+ * - A move changes the placement of one pattern only, so the estimate is updated
+ *   with two lookups in that pattern's table;
+ * - The file is versioned: a header (magic, version, row length, number of patterns),
+ *   a descriptor for each pattern (number of tiles, labels, table length), then the tables,
+ *   one byte per placement. The tables are memory mapped on loading;
+ * - The lookups are absolute reads on the buffers: an instance can be shared among threads;
+ * - The search of a pattern of k tiles spans <placement, hole>, i.e. n!/(n-k-1)! states of a byte each
+ *   (n cells): a pattern is rejected beyond MAX_STATES, e.g. more than 6 tiles on the 15 version
+ *   or more than 5 tiles on the 24 version (6 tiles would take 2.4e9 states).
+ *
+ * @author marco
+ */
+public final class EightPatterns implements EightEstimator {
+    static final int MAGIC = 0x38505A50;             // "8PZP"
+    static final int VERSION = 1;
+    static final int MAX_STATES = 1 << 28;           // states of the search of a pattern
+
+    private final int row_length;
+    private final int size;
+    private final int[][] patterns;         // 0-based labels of each pattern
+    private final int[][] factors;          // weights of the rank digits of each pattern
+    private final int[] owner;              // label-1 -> pattern, -1 for the hole
+    private final ByteBuffer[] tables;
+
+    private EightPatterns(int row_length, int[][] patterns, ByteBuffer[] tables){
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.patterns = patterns;
+        this.tables = tables;
+        this.owner = new int[size];
+        this.factors = new int[patterns.length][];
+        Arrays.fill(owner, -1);
+        for (int p=0; p < patterns.length; p++){
+            for (int l : patterns[p])
+                owner[l] = p;
+            factors[p] = factors(size, patterns[p].length);
+        }
+    }
+
+    public int getRowLength(){
+        return row_length;
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @return the default partition of the labels: 4-4 for the 8 version, 6-6-3 for the 15 version,
+     *         the rows of the board otherwise (5-5-5-5-4 for the 24 version, the largest patterns it allows)
+     */
+    public static int[][] partition(int row_length){
+        switch (row_length) {
+            case 3: return new int[][]{ {1, 2, 3, 4}, {5, 6, 7, 8} };
+            case 4: return new int[][]{ {1, 5, 6, 9, 10, 13}, {7, 8, 11, 12, 14, 15}, {2, 3, 4} };
+            default:
+                int[][] rows = new int[row_length][];
+                for (int r=0; r < row_length; r++){
+                    rows[r] = new int[r == row_length-1 ? row_length-1 : row_length];
+                    for (int c=0; c < rows[r].length; c++)
+                        rows[r][c] = r*row_length+c+1;
+                }
+                return rows;
+        }
+    }
+
+    /********** Construction and persistence **********/
+
+    /**
+     * Builds the databases on the common pool
+     * @param row_length the number of tiles in a row
+     * @param partition the labels of each pattern: every tile in exactly one pattern
+     * @return the pattern databases, in memory
+     */
+    public static EightPatterns build(int row_length, int[][] partition){
+        return build(row_length, partition, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @param partition the labels of each pattern: every tile in exactly one pattern
+     * @param pool the workers of the searches
+     * @return the pattern databases, in memory
+     * @throws IllegalArgumentException if the patterns are not a partition of the tiles,
+     *         or the search of a pattern exceeds MAX_STATES
+     */
+    public static EightPatterns build(int row_length, int[][] partition, ForkJoinPool pool){
+        int size = row_length*row_length;
+        int[][] patterns = new int[partition.length][];
+        boolean[] seen = new boolean[size];
+        for (int p=0; p < partition.length; p++){
+            patterns[p] = new int[partition[p].length];
+            for (int i=0; i < partition[p].length; i++){
+                int l = partition[p][i]-1;
+                if (l < 0 || l >= size-1 || seen[l])
+                    throw new IllegalArgumentException("Not a partition of the tiles: "+Arrays.deepToString(partition));
+                seen[l] = true;
+                patterns[p][i] = l;
+            }
+        }
+        for (int l=0; l < size-1; l++)
+            if (!seen[l])
+                throw new IllegalArgumentException("Tile "+(l+1)+" is not in any pattern");
+        for (int[] pattern : patterns){
+            // the search places the tiles of the pattern and the hole
+            long states = 1;
+            for (int i=0; i <= pattern.length && states <= MAX_STATES; i++)
+                states *= size-i;
+            if (states > MAX_STATES)
+                throw new IllegalArgumentException("Pattern of "+pattern.length+" tiles too large for a board of side "
+                                                   +row_length+": more than "+MAX_STATES+" states, split it");
+        }
+
+        ByteBuffer[] tables = new ByteBuffer[patterns.length];
+        for (int p=0; p < patterns.length; p++)
+            tables[p] = ByteBuffer.wrap(search(row_length, patterns[p], pool));
+        return new EightPatterns(row_length, patterns, tables);
+    }
+
+    /**
+     * Memory maps the databases written by write()
+     * @param file the databases file
+     * @return the pattern databases
+     * @throws IOException if the file cannot be read or it is not a database of this version
+     */
+    public static EightPatterns load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 1 << 16))
+                                  .order(ByteOrder.BIG_ENDIAN);
+            if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Not a pattern database of version "+VERSION+": "+file);
+            int row_length = header.getInt();
+            int[][] patterns = new int[header.getInt()][];
+            int[] lengths = new int[patterns.length];
+            for (int p=0; p < patterns.length; p++){
+                patterns[p] = new int[header.getInt()];
+                for (int i=0; i < patterns[p].length; i++)
+                    patterns[p][i] = header.getInt()-1;
+                lengths[p] = header.getInt();
+            }
+
+            long offset = header.position();
+            ByteBuffer[] tables = new ByteBuffer[patterns.length];
+            for (int p=0; p < patterns.length; p++){
+                if (lengths[p] != placements(row_length*row_length, patterns[p].length)
+                        || offset + lengths[p] > ch.size())
+                    throw new IOException("Corrupted pattern database: "+file);
+                tables[p] = ch.map(FileChannel.MapMode.READ_ONLY, offset, lengths[p]);
+                offset += lengths[p];
+            }
+            return new EightPatterns(row_length, patterns, tables);
+        }
+    }
+
+    /**
+     * Loads the databases from a file, building and writing them if the file does not exist
+     * @param file the databases file
+     * @param row_length the number of tiles in a row
+     * @param partition the labels of each pattern, used if the databases have to be built
+     * @return the pattern databases
+     * @throws IOException if the file cannot be read or written
+     */
+    public static EightPatterns open(Path file, int row_length, int[][] partition) throws IOException {
+        if (!Files.exists(file))
+            build(row_length, partition).write(file);
+        EightPatterns pdb = load(file);
+        if (pdb.row_length != row_length)
+            throw new IOException("Pattern database of side "+pdb.row_length+": "+file);
+        return pdb;
+    }
+
+    /**
+     * Writes the databases; the file is replaced atomically
+     * @param file the databases file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        int descriptors = 0;
+        for (int[] pattern : patterns)
+            descriptors += 4*(pattern.length+2);
+        ByteBuffer header = ByteBuffer.allocate(16 + descriptors).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(row_length).putInt(patterns.length);
+        for (int p=0; p < patterns.length; p++){
+            header.putInt(patterns[p].length);
+            for (int l : patterns[p])
+                header.putInt(l+1);
+            header.putInt(tables[p].capacity());
+        }
+        header.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)){
+            while (header.hasRemaining())
+                ch.write(header);
+            for (ByteBuffer table : tables){
+                ByteBuffer data = table.duplicate().clear();
+                while (data.hasRemaining())
+                    ch.write(data);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /********** Estimates **********/
+
+    @Override
+    public int estimate(int[] cells, int[] where){
+        int h = 0;
+        for (int p=0; p < patterns.length; p++)
+            h += lookup(p, where);
+        return h;
+    }
+
+    @Override
+    public int delta(int[] cells, int[] where, int from, int to){
+        int l = cells[to];
+        int p = owner[l];
+        int after = lookup(p, where);
+        // undo the move in place to look up the placement before it
+        where[l] = from;
+        int before = lookup(p, where);
+        where[l] = to;
+        return after - before;
+    }
+
+    @Override
+    public int estimate(long cells){
+        long where = 0;
+        for (int q=0; q < size; q++)
+            where |= (long) q << (EightLayout.nibble(cells, q) << 2);
+        int h = 0;
+        for (int p=0; p < patterns.length; p++){
+            int[] pattern = patterns[p], f = factors[p];
+            int rank = 0;
+            long used = 0;
+            for (int i=0; i < pattern.length; i++){
+                int v = EightLayout.nibble(where, pattern[i]);
+                rank += (v - Long.bitCount(used & ((1L << v)-1))) * f[i];
+                used |= 1L << v;
+            }
+            h += tables[p].get(rank);
+        }
+        return h;
+    }
+
+    @Override
+    public int delta(long before, long after, int from, int to){
+        int p = owner[EightLayout.nibble(before, from)];
+        return lookup(p, after) - lookup(p, before);
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return the value of pattern p for an array board
+     */
+    private int lookup(int p, int[] where){
+        int[] pattern = patterns[p], f = factors[p];
+        int rank = 0;
+        long used = 0;
+        for (int i=0; i < pattern.length; i++){
+            int v = where[pattern[i]];
+            rank += (v - Long.bitCount(used & ((1L << v)-1))) * f[i];
+            used |= 1L << v;
+        }
+        return tables[p].get(rank);
+    }
+
+    /**
+     * @return the value of pattern p for a packed board
+     */
+    private int lookup(int p, long cells){
+        int[] pattern = patterns[p], f = factors[p];
+        int rank = 0;
+        long used = 0;
+        for (int i=0; i < pattern.length; i++){
+            int v = 0;
+            while (EightLayout.nibble(cells, v) != pattern[i])
+                v++;
+            rank += (v - Long.bitCount(used & ((1L << v)-1))) * f[i];
+            used |= 1L << v;
+        }
+        return tables[p].get(rank);
+    }
+
+    /**
+     * 0-1 breadth-first search from the sorted placement of a pattern
+     * @return for each placement of the pattern, the least number of moves of its tiles
+     */
+    private static byte[] search(int row_length, int[] pattern, ForkJoinPool pool){
+        int size = row_length*row_length, k = pattern.length, free = size-k;
+        int[] f = factors(size, k+1);
+        int[] pos = new int[k+1];           // positions of the tiles, then of the hole
+        for (int i=0; i < k; i++)
+            pos[i] = pattern[i];
+        pos[k] = size-1;
+        int states = placements(size, k+1);
+        byte[] depth = new EightBFS(states, () -> new Expander(row_length, k, f), pool).run(rank(pos, k+1, f));
+
+        // the placements that differ only by the hole are consecutive
+        byte[] table = new byte[states/free];
+        for (int r=0; r < table.length; r++){
+            int min = Integer.MAX_VALUE;
+            for (int j=0; j < free; j++)
+                if (depth[r*free+j] >= 0)
+                    min = Math.min(min, depth[r*free+j]);
+            table[r] = (byte) min;
+        }
+        return table;
+    }
+
+    /**
+     * Successors of a placement <positions of the pattern, hole>:
+     * sliding the hole on a tile outside the pattern costs nothing
+     */
+    private static final class Expander implements EightBFS.Expander {
+        private final int size, k;
+        private final int[] f;
+        private final int[] delta;
+        private final byte[] legal;
+        private final int[] pos;
+        private final int[] occupant;       // position -> index in the pattern, -1 if free
+
+        Expander(int row_length, int k, int[] f){
+            this.size = row_length*row_length;
+            this.k = k;
+            this.f = f;
+            this.delta = new int[]{ -row_length, row_length, -1, 1 };
+            this.legal = EightLayout.legalMoves(row_length);
+            this.pos = new int[k+1];
+            this.occupant = new int[size];
+        }
+
+        @Override
+        public int expand(int rank, int[] out){
+            unrank(rank, size, k+1, f, pos);
+            Arrays.fill(occupant, -1);
+            for (int i=0; i < k; i++)
+                occupant[pos[i]] = i;
+            int hole = pos[k], n = 0;
+            for (int dir=0; dir < 4; dir++){
+                if ((legal[hole] & (1 << dir)) == 0)
+                    continue;
+                int t = hole + delta[dir];
+                int i = occupant[t];
+                if (i >= 0)
+                    pos[i] = hole;
+                pos[k] = t;
+                int c = rank(pos, k+1, f);
+                out[n++] = i >= 0 ? c : ~c;
+                if (i >= 0)
+                    pos[i] = t;
+                pos[k] = hole;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @return the number of placements of k distinct tiles on n cells
+     */
+    static int placements(int n, int k){
+        long p = 1;
+        for (int i=0; i < k; i++)
+            p *= n-i;
+        return Math.toIntExact(p);
+    }
+
+    /**
+     * @return the weight of each digit of the rank of k distinct positions out of n
+     */
+    static int[] factors(int n, int k){
+        int[] f = new int[k];
+        for (int i=0; i < k; i++)
+            f[i] = placements(n-1-i, k-1-i);
+        return f;
+    }
+
+    /**
+     * @return the rank of the partial permutation pos[0..k)
+     */
+    static int rank(int[] pos, int k, int[] f){
+        int rank = 0;
+        long used = 0;
+        for (int i=0; i < k; i++){
+            int v = pos[i];
+            rank += (v - Long.bitCount(used & ((1L << v)-1))) * f[i];
+            used |= 1L << v;
+        }
+        return rank;
+    }
+
+    /**
+     * Inverse of rank: fills pos[0..k) with the positions of the partial permutation
+     */
+    static void unrank(int rank, int n, int k, int[] f, int[] pos){
+        long used = 0;
+        for (int i=0; i < k; i++){
+            int c = rank / f[i];
+            rank %= f[i];
+            int v = -1;
+            for (c++; c > 0; c--)
+                do v++; while ((used & (1L << v)) != 0);
+            pos[i] = v;
+            used |= 1L << v;
+        }
+    }
+}
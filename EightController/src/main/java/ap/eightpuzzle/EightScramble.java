@@ -0,0 +1,209 @@
+package ap.eightpuzzle;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generator of random boards that can be sorted without flipping:
+ * uniform among all the solvable boards, or at a target distance from the sorted one.
+ *
+ * Design choices:
+ * - A uniform board is a Fisher-Yates shuffle that tracks the parity of its swaps:
+ *   if the board cannot be sorted, two fixed tiles (not the hole) are swapped;
+ *   with the hole fixed this swap is a bijection between the unsolvable and the solvable boards,
+ *   so the result is uniform among the solvable ones: O(size), one random number per cell;
+ * - Each thread draws from its own SplittableRandom, split from the one of the generator,
+ *   so the generator can be shared without contention; the methods taking a SplittableRandom
+ *   are deterministic, for seeded runs;
+ * - The 8 version at a target distance is exact: the boards are indexed by their distance
+ *   (EightTable, built at the first request), and the board is drawn uniformly from its bucket;
+ * - Larger boards at a target distance are random walks of that many moves from the sorted board,
+ *   never undoing the previous move: their distance is at most the target, with the same parity.
+ *
+ * @author marco
+ */
+public final class EightScramble {
+    private final int row_length;
+    private final int size;
+    private final SplittableRandom root;
+    private final ThreadLocal<SplittableRandom> random;
+    private final byte[] legal;
+    private final int[] delta;
+    private volatile int[][] depths;                // distance -> indices of EightTable, 8 version only
+
+    /**
+     * @param row_length the number of tiles in a row, at least 2
+     */
+    public EightScramble(int row_length){
+        this(row_length, new SplittableRandom());
+    }
+
+    /**
+     * @param row_length the number of tiles in a row, at least 2
+     * @param seed the seed of the generator
+     */
+    public EightScramble(int row_length, long seed){
+        this(row_length, new SplittableRandom(seed));
+    }
+
+    private EightScramble(int row_length, SplittableRandom root){
+        if (row_length < 2 || row_length > EightLayout.MAX_SIDE)
+            throw new IllegalArgumentException("Wrong board side: "+row_length);
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.root = root;
+        this.random = ThreadLocal.withInitial(this::split);
+        this.legal = EightLayout.legalMoves(row_length);
+        this.delta = new int[]{ -row_length, row_length, -1, 1 };
+    }
+
+    /**
+     * @return the number of tiles in a row
+     */
+    public int getRowLength(){
+        return row_length;
+    }
+
+    /********** Uniform boards **********/
+
+    /**
+     * @return a positional layout, uniform among the solvable ones:
+     *         the i-th element is the label of the (i+1)-th tile
+     */
+    public int[] next(){
+        return next(random.get(), new int[size]);
+    }
+
+    /**
+     * Same as next(), on a given source of randomness and array
+     * @param r the source of randomness
+     * @param dst array of at least size elements
+     * @return dst
+     */
+    public int[] next(SplittableRandom r, int[] dst){
+        for (int i=0; i < size; i++)
+            dst[i] = i+1;
+        int parity = 0, hole = size-1;
+        for (int i=size-1; i > 0; i--){
+            int j = r.nextInt(i+1);
+            if (j != i){
+                int tmp = dst[i];
+                dst[i] = dst[j];
+                dst[j] = tmp;
+                parity ^= 1;
+            }
+            if (dst[i] == size)
+                hole = i;
+        }
+        if (dst[0] == size)
+            hole = 0;
+        int distance = (row_length-1 - hole/row_length) + (row_length-1 - hole%row_length);
+        if (parity != (distance & 1)){
+            int a = hole < 2 ? 2 : 0;
+            int tmp = dst[a];
+            dst[a] = dst[a+1];
+            dst[a+1] = tmp;
+        }
+        return dst;
+    }
+
+    /********** Boards at a distance **********/
+
+    /**
+     * @param depth the target distance from the sorted board
+     * @return a positional layout at that distance (8 version) or at most at that distance
+     */
+    public int[] atDepth(int depth){
+        return atDepth(random.get(), depth, new int[size]);
+    }
+
+    /**
+     * Same as atDepth(depth), on a given source of randomness and array
+     * @param r the source of randomness
+     * @param depth the target distance from the sorted board
+     * @param dst array of at least size elements
+     * @return dst
+     * @throws IllegalArgumentException if no board of the 8 version is at that distance
+     */
+    public int[] atDepth(SplittableRandom r, int depth, int[] dst){
+        if (depth < 0)
+            throw new IllegalArgumentException("Negative depth: "+depth);
+        if (row_length == EightTable.ROW_LENGTH){
+            int[][] index = index();
+            if (depth >= index.length)
+                throw new IllegalArgumentException("No board at distance "+depth);
+            long cells = EightTable.unrank(index[depth][r.nextInt(index[depth].length)]);
+            for (int p=0; p < size; p++)
+                dst[p] = EightLayout.nibble(cells, p)+1;
+            return dst;
+        }
+        for (int i=0; i < size; i++)
+            dst[i] = i+1;
+        int hole = size-1, last = -1;
+        for (int k=0; k < depth; k++){
+            int moves = legal[hole];
+            if (last >= 0)
+                moves &= ~(1 << (last ^ 1));
+            int dir = pick(r, moves);
+            int tile = hole + delta[dir];
+            dst[hole] = dst[tile];
+            dst[tile] = size;
+            hole = tile;
+            last = dir;
+        }
+        return dst;
+    }
+
+    /**
+     * @return the largest distance of atDepth: exact for the 8 version, unbounded otherwise
+     */
+    public int getMaxDepth(){
+        return row_length == EightTable.ROW_LENGTH ? index().length-1 : Integer.MAX_VALUE;
+    }
+
+    /********** Auxiliary methods **********/
+
+    private SplittableRandom split(){
+        synchronized (root){
+            return root.split();
+        }
+    }
+
+    /**
+     * @return a uniform random direction among the ones in the mask
+     */
+    private static int pick(SplittableRandom r, int moves){
+        int k = r.nextInt(Integer.bitCount(moves));
+        for (; k > 0; k--)
+            moves &= moves-1;
+        return Integer.numberOfTrailingZeros(moves);
+    }
+
+    /**
+     * Buckets the indices of EightTable by distance, built at the first call
+     */
+    private int[][] index(){
+        int[][] index = depths;
+        if (index != null)
+            return index;
+        synchronized (this){
+            if (depths != null)
+                return depths;
+            EightTable table = EightTable.build();
+            byte[] distance = new byte[EightTable.STATES];
+            int[] count = new int[64];
+            int max = 0;
+            for (int i=0; i < EightTable.STATES; i++){
+                int d = table.distance(EightTable.unrank(i));
+                distance[i] = (byte) d;
+                count[d]++;
+                max = Math.max(max, d);
+            }
+            index = new int[max+1][];
+            for (int d=0; d <= max; d++)
+                index[d] = new int[count[d]];
+            for (int i=EightTable.STATES-1; i >= 0; i--)
+                index[distance[i]][--count[distance[i]]] = i;
+            return depths = index;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package ap.eightpuzzle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Optimal A* solver for the boards of EightLayout (up to 16 cells).
+ *
+ * Design choices:
+ * - The moves are the ones enforced by the controller, encoded as the direction
+ *   in which the hole slides (EightLayout.UP, DOWN, LEFT, RIGHT);
+ * - The search nodes are not objects: they live in parallel primitive arrays
+ *   (packed state, parent, move, hole, g, h), indexed by an int;
+ * - The closed set is an open addressing table keyed by the packed state (no boxing),
+ *   invalidated between two searches by an epoch counter instead of being cleared;
+ * - The open set is an indexed binary heap of node indexes, ordered by f and then by
+ *   the greatest g, which supports the decrease-key when a shorter path is found;
+ * - The estimate of a child is updated from the one of its parent (EightEstimator.delta);
+ *   by default it is the Manhattan distance plus linear conflicts (EightHeuristic);
+ * - The search can be cancelled by interrupting its thread: the flag is polled every
+ *   65536 expansions and the search throws a CancellationException;
+ * - The arrays grow on demand and are reused by the next searches:
+ *   an instance is not thread-safe, each thread should own its solver.
+ *
+ * Larger boards exhaust the memory with A*, they should be solved with EightIDASolver.
+ *
+ * @author marco
+ */
+public final class EightSolver {
+    private static final int CLOSED = -1;
+    private static final int CHECK = (1 << 16) - 1;     // expansions between two interruption checks
+
+    private final int row_length;
+    private final int size;
+    private final long goal;
+    private final int[] delta;
+    private final byte[] legal;             // position -> mask of the legal directions
+    private final EightEstimator heuristic;
+    private final EightLayout root;
+
+    // nodes
+    private long[] state = new long[1024];
+    private int[] parent = new int[1024];
+    private byte[] move = new byte[1024];
+    private byte[] hole = new byte[1024];
+    private short[] g = new short[1024];
+    private short[] h = new short[1024];
+    private int[] index = new int[1024];    // position in the heap, CLOSED if expanded
+    private int nodes;
+
+    // open addressing table: state -> node
+    private long[] keys = new long[4096];
+    private int[] values = new int[4096];
+    private int[] stamps = new int[4096];
+    private int epoch;
+
+    // binary heap of nodes
+    private int[] heap = new int[1024];
+    private int heapSize;
+
+    private long expanded;
+
+    /**
+     * @param row_length the number of tiles in a row
+     */
+    public EightSolver(int row_length){
+        this(row_length, new EightHeuristic(row_length));
+    }
+
+    /**
+     * @param row_length the number of tiles in a row
+     * @param estimator the admissible estimate
+     */
+    public EightSolver(int row_length, EightEstimator estimator){
+        if (row_length*row_length > EightLayout.MAX_SIZE)
+            throw new IllegalArgumentException("Unsupported board of side "+row_length);
+        this.root = new EightLayout(row_length);
+        this.row_length = row_length;
+        this.size = row_length*row_length;
+        this.goal = EightLayout.solved(size);
+        this.delta = new int[]{ -row_length, row_length, -1, 1 };
+        this.legal = EightLayout.legalMoves(row_length);
+        this.heuristic = estimator;
+    }
+
+    /**
+     * @return the number of nodes expanded by the last search
+     */
+    public long getExpanded(){
+        return expanded;
+    }
+
+    /**
+     * @param layout positional layout, as generated by the board:
+     *               the i-th element is the label of the (i+1)-th tile
+     * @return the shortest sequence of moves of the hole that sorts the board,
+     *         null if the board cannot be sorted without flipping
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] solve(List<Integer> layout){
+        root.reset(layout);
+        return solve(root);
+    }
+
+    /**
+     * @param layout positional layout: the i-th element is the label of the (i+1)-th tile
+     * @return the shortest sequence of moves of the hole that sorts the board,
+     *         null if the board cannot be sorted without flipping
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] solve(int[] layout){
+        root.reset(layout);
+        return solve(root);
+    }
+
+    /**
+     * @param layout a board
+     * @return the shortest sequence of moves of the hole that sorts the board,
+     *         null if the board cannot be sorted without flipping
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public byte[] solve(EightLayout layout){
+        if (layout.getRowLength() != row_length)
+            throw new IllegalArgumentException("Wrong board side: "+layout.getRowLength());
+        return layout.isSolvable() ? search(layout.getPacked(), layout.hole()-1) : null;
+    }
+
+    /**
+     * @param cells the packed configuration
+     * @param blank the 0-based position of the hole
+     * @return the shortest sequence of moves of the hole that sorts the board
+     */
+    byte[] search(long cells, int blank){
+        this.nodes = 0;
+        this.heapSize = 0;
+        this.expanded = 0;
+        if (++epoch == 0){
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+
+        int n = add(cells, -1, -1, blank, 0, heuristic.estimate(cells));
+        // the root is closed as any other state, so a cycle back to it is not a new node
+        int start = find(cells);
+        stamps[start] = epoch;
+        keys[start] = cells;
+        values[start] = n;
+        push(n);
+        while (heapSize > 0){
+            n = pop();
+            if (state[n] == goal)
+                return path(n);
+            if ((++expanded & CHECK) == 0 && Thread.currentThread().isInterrupted())
+                throw new CancellationException("Search interrupted");
+
+            long s = state[n];
+            int b = hole[n];
+            int mask = legal[b];
+            if (move[n] >= 0)
+                mask &= ~(1 << (move[n]^1));
+            int gc = g[n]+1;
+            for (int dir=0; dir < 4; dir++){
+                if ((mask & (1 << dir)) == 0)
+                    continue;
+                int tile = b + delta[dir];
+                long child = EightLayout.slide(s, b, tile, size);
+
+                int slot = find(child);
+                if (stamps[slot] != epoch){
+                    int c = add(child, n, dir, tile, gc, h[n] + heuristic.delta(s, child, tile, b));
+                    stamps[slot] = epoch;
+                    keys[slot] = child;
+                    values[slot] = c;
+                    push(c);
+                    if (nodes*2 > keys.length)
+                        grow();
+                }
+                else{
+                    int c = values[slot];
+                    if (gc >= g[c])
+                        continue;
+                    parent[c] = n;
+                    move[c] = (byte) dir;
+                    g[c] = (short) gc;
+                    if (index[c] == CLOSED)
+                        push(c);
+                    else
+                        up(index[c]);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the moves from the root to node n
+     */
+    private byte[] path(int n){
+        byte[] moves = new byte[g[n]];
+        for (int i=moves.length-1; i >= 0; i--, n = parent[n])
+            moves[i] = move[n];
+        return moves;
+    }
+
+    /********** Nodes **********/
+
+    private int add(long s, int p, int m, int b, int gc, int hc){
+        if (nodes == state.length){
+            int cap = nodes*2;
+            state = Arrays.copyOf(state, cap);
+            parent = Arrays.copyOf(parent, cap);
+            move = Arrays.copyOf(move, cap);
+            hole = Arrays.copyOf(hole, cap);
+            g = Arrays.copyOf(g, cap);
+            h = Arrays.copyOf(h, cap);
+            index = Arrays.copyOf(index, cap);
+        }
+        state[nodes] = s;
+        parent[nodes] = p;
+        move[nodes] = (byte) m;
+        hole[nodes] = (byte) b;
+        g[nodes] = (short) gc;
+        h[nodes] = (short) hc;
+        index[nodes] = CLOSED;
+        return nodes++;
+    }
+
+    /********** Closed set **********/
+
+    private int find(long s){
+        int m = keys.length-1;
+        int slot = mix(s) & m;
+        while (stamps[slot] == epoch && keys[slot] != s)
+            slot = (slot+1) & m;
+        return slot;
+    }
+
+    private void grow(){
+        int cap = keys.length*2;
+        keys = new long[cap];
+        values = new int[cap];
+        stamps = new int[cap];
+        epoch = 1;
+        for (int i=0; i < nodes; i++){
+            int slot = find(state[i]);
+            stamps[slot] = epoch;
+            keys[slot] = state[i];
+            values[slot] = i;
+        }
+    }
+
+    private static int mix(long s){
+        s ^= s >>> 33;
+        s *= 0xff51afd7ed558ccdL;
+        s ^= s >>> 33;
+        return (int) s;
+    }
+
+    /********** Open set **********/
+
+    /**
+     * @return true if node a has to be expanded before node b: lower f, then greater g
+     */
+    private boolean before(int a, int b){
+        int fa = g[a]+h[a], fb = g[b]+h[b];
+        return fa < fb || (fa == fb && g[a] > g[b]);
+    }
+
+    private void push(int n){
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, heapSize*2);
+        heap[heapSize] = n;
+        index[n] = heapSize;
+        up(heapSize++);
+    }
+
+    private int pop(){
+        int top = heap[0];
+        index[top] = CLOSED;
+        int last = heap[--heapSize];
+        if (heapSize > 0){
+            heap[0] = last;
+            index[last] = 0;
+            down(0);
+        }
+        return top;
+    }
+
+    private void up(int i){
+        int n = heap[i];
+        while (i > 0){
+            int p = (i-1) >>> 1;
+            if (!before(n, heap[p]))
+                break;
+            heap[i] = heap[p];
+            index[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = n;
+        index[n] = i;
+    }
+
+    private void down(int i){
+        int n = heap[i];
+        while (true){
+            int c = 2*i+1;
+            if (c >= heapSize)
+                break;
+            if (c+1 < heapSize && before(heap[c+1], heap[c]))
+                c++;
+            if (!before(heap[c], n))
+                break;
+            heap[i] = heap[c];
+            index[heap[i]] = i;
+            i = c;
+        }
+        heap[i] = n;
+        index[n] = i;
+    }
+}
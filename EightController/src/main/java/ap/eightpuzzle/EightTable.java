@@ -0,0 +1,287 @@
+package ap.eightpuzzle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Complete table of the optimal distances of the 8 version: every question is a lookup.
+ *
+ * Design choices:
+ * - A board is indexed by the Lehmer rank of the sequence <hole position, positions of tiles 1..8>:
+ *   the last digit of the code is always 0 and the previous one is forced by the parity
+ *   of the solvable boards (with the hole fixed, swapping the last two tiles changes the parity),
+ *   so rank/2 is a perfect hash of the 9!/2 solvable boards;
+ * - A distance does not fit in 4 bits (up to 31), but its difference from the estimate
+ *   (Manhattan distance plus linear conflicts) is even and at most 30:
+ *   each board stores (distance - estimate)/2 in a nibble, 90 KB in total;
+ * - The table is built once by a parallel breadth-first search from the sorted board (EightBFS),
+ *   written to disk and then memory mapped, so loading it costs no parsing;
+ * - The file is a 16 bytes header (magic, version, row length, number of boards)
+ *   followed by the nibbles, two boards per byte;
+ * - The lookups are absolute reads on the buffer: an instance can be shared among threads.
+ *
+ * @author marco
+ */
+public final class EightTable {
+    public static final int ROW_LENGTH = 3;
+    public static final int SIZE = ROW_LENGTH*ROW_LENGTH;
+    public static final int STATES = 181440;        // 9!/2
+    static final int MAGIC = 0x38505A54;             // "8PZT"
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+
+    private static final int[] FACTORIAL = { 40320, 5040, 720, 120, 24, 6, 2, 1, 1 };
+
+    private final ByteBuffer table;                 // (distance - estimate)/2, two boards per byte
+    private final EightHeuristic heuristic = new EightHeuristic(ROW_LENGTH);
+    private final byte[] legal = EightLayout.legalMoves(ROW_LENGTH);
+    private final int[] delta = { -ROW_LENGTH, ROW_LENGTH, -1, 1 };
+
+    private EightTable(ByteBuffer table){
+        this.table = table;
+    }
+
+    /********** Construction and persistence **********/
+
+    /**
+     * Breadth-first search of the whole space from the sorted board, on the common pool
+     * @return the complete table, in memory
+     */
+    public static EightTable build(){
+        return build(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Breadth-first search of the whole space from the sorted board
+     * @param pool the workers of the search
+     * @return the complete table, in memory
+     */
+    public static EightTable build(ForkJoinPool pool){
+        byte[] depth = new EightBFS(STATES, Expander::new, pool).run(index(EightLayout.solved(SIZE)));
+        EightHeuristic heuristic = new EightHeuristic(ROW_LENGTH);
+        byte[] table = new byte[STATES/2];
+        for (int i=0; i < STATES; i++){
+            int residual = (depth[i] - heuristic.estimate(unrank(i))) >> 1;
+            table[i >>> 1] |= (byte) ((i & 1) == 0 ? residual : residual << 4);
+        }
+        return new EightTable(ByteBuffer.wrap(table));
+    }
+
+    /**
+     * Successors of a board, identified by its index
+     */
+    private static final class Expander implements EightBFS.Expander {
+        private final byte[] legal = EightLayout.legalMoves(ROW_LENGTH);
+        private final int[] delta = { -ROW_LENGTH, ROW_LENGTH, -1, 1 };
+
+        @Override
+        public int expand(int index, int[] out){
+            long cells = unrank(index);
+            int hole = hole(cells), n = 0;
+            for (int dir=0; dir < 4; dir++)
+                if ((legal[hole] & (1 << dir)) != 0)
+                    out[n++] = index(EightLayout.slide(cells, hole, hole+delta[dir], SIZE));
+            return n;
+        }
+    }
+
+    /**
+     * Memory maps a table written by write()
+     * @param file the table file
+     * @return the table
+     * @throws IOException if the file cannot be read or it is not a table of this version
+     */
+    public static EightTable load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && ch.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != ROW_LENGTH || header.getInt() != STATES
+                    || ch.size() != HEADER + STATES/2)
+                throw new IOException("Not a distance table of version "+VERSION+": "+file);
+            return new EightTable(ch.map(FileChannel.MapMode.READ_ONLY, HEADER, STATES/2));
+        }
+    }
+
+    /**
+     * Loads the table from a file, building and writing it if the file does not exist
+     * @param file the table file
+     * @return the table
+     * @throws IOException if the file cannot be read or written
+     */
+    public static EightTable open(Path file) throws IOException {
+        if (!Files.exists(file))
+            build().write(file);
+        return load(file);
+    }
+
+    /**
+     * Writes the table; the file is replaced atomically, so concurrent readers never see it partial
+     * @param file the table file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(ROW_LENGTH).putInt(STATES).flip();
+            ByteBuffer data = table.duplicate().clear();
+            while (header.hasRemaining())
+                ch.write(header);
+            while (data.hasRemaining())
+                ch.write(data);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /********** Lookups **********/
+
+    /**
+     * @param cells a packed configuration of the 8 version
+     * @return the optimal number of moves to sort the board,
+     *         -1 if the board cannot be sorted without flipping
+     */
+    public int distance(long cells){
+        if (!EightLayout.isSolvable(cells, ROW_LENGTH))
+            return -1;
+        return lookup(cells);
+    }
+
+    /**
+     * @param layout positional layout, as generated by the board:
+     *               the i-th element is the label of the (i+1)-th tile
+     * @return the optimal number of moves to sort the board,
+     *         -1 if the board cannot be sorted without flipping
+     */
+    public int distance(List<Integer> layout){
+        return distance(pack(layout));
+    }
+
+    /**
+     * @param cells a packed configuration of the 8 version
+     * @return a direction of the hole that starts an optimal solution,
+     *         -1 if the board is sorted or it cannot be sorted without flipping
+     */
+    public int next(long cells){
+        if (!EightLayout.isSolvable(cells, ROW_LENGTH))
+            return -1;
+        int d = lookup(cells);
+        if (d == 0)
+            return -1;
+        int hole = hole(cells);
+        for (int dir=0; dir < 4; dir++)
+            if ((legal[hole] & (1 << dir)) != 0
+                    && lookup(EightLayout.slide(cells, hole, hole+delta[dir], SIZE)) < d)
+                return dir;
+        throw new IllegalStateException("Corrupted distance table");
+    }
+
+    /**
+     * @param layout positional layout, as generated by the board:
+     *               the i-th element is the label of the (i+1)-th tile
+     * @return a direction of the hole that starts an optimal solution,
+     *         -1 if the board is sorted or it cannot be sorted without flipping
+     */
+    public int next(List<Integer> layout){
+        return next(pack(layout));
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * @return the distance of a solvable board
+     */
+    private int lookup(long cells){
+        int i = index(cells);
+        int b = table.get(i >>> 1);
+        int residual = ((i & 1) == 0 ? b : b >>> 4) & 0xF;
+        return heuristic.estimate(cells) + 2*residual;
+    }
+
+    /**
+     * Lehmer rank of <hole position, positions of tiles 1..8>; the rank of a solvable board
+     * is even or odd depending on it, so rank >>> 1 is its perfect hash (see above)
+     * @return the rank, in [0, 9!)
+     */
+    static int rank(long cells){
+        long where = 0;
+        for (int p=0; p < SIZE; p++)
+            where |= (long) p << (EightLayout.nibble(cells, p) << 2);
+        int rank = 0, used = 0;
+        for (int i=0; i < SIZE; i++){
+            // the hole first, then the tiles
+            int v = EightLayout.nibble(where, (i+SIZE-1) % SIZE);
+            rank += (v - Integer.bitCount(used & ((1 << v)-1))) * FACTORIAL[i];
+            used |= 1 << v;
+        }
+        return rank;
+    }
+
+    /**
+     * @return the perfect hash of a solvable board, in [0, 9!/2)
+     */
+    static int index(long cells){
+        return rank(cells) >>> 1;
+    }
+
+    /**
+     * Inverse of index: the dropped digit is the one that makes the board solvable
+     * @return the packed solvable board with the given index
+     */
+    static long unrank(int index){
+        long cells = decode(index << 1);
+        return EightLayout.isSolvable(cells, ROW_LENGTH) ? cells : decode((index << 1) | 1);
+    }
+
+    /**
+     * Inverse of rank
+     */
+    private static long decode(int rank){
+        long cells = 0;
+        int used = 0;
+        for (int i=0; i < SIZE; i++){
+            int c = rank / FACTORIAL[i];
+            rank %= FACTORIAL[i];
+            int v = -1;
+            for (c++; c > 0; c--)
+                do v++; while ((used & (1 << v)) != 0);
+            used |= 1 << v;
+            // the hole first, then the tiles
+            cells |= (long) ((i+SIZE-1) % SIZE) << (v << 2);
+        }
+        return cells;
+    }
+
+    private static int hole(long cells){
+        for (int p=0; p < SIZE; p++)
+            if (EightLayout.nibble(cells, p) == SIZE-1)
+                return p;
+        throw new IllegalArgumentException("No hole in "+Long.toHexString(cells));
+    }
+
+    private static long pack(List<Integer> layout){
+        if (layout.size() != SIZE)
+            throw new IllegalArgumentException("Wrong layout size: "+layout.size());
+        long cells = 0;
+        int seen = 0;
+        for (int p=0; p < SIZE; p++){
+            int l = layout.get(p)-1;
+            if (l < 0 || l >= SIZE || (seen & (1 << l)) != 0)
+                throw new IllegalArgumentException("Not a permutation: "+layout);
+            seen |= 1 << l;
+            cells |= (long) l << (p << 2);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,54 @@
+package ap.eightpuzzle;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factories of the background threads: virtual threads when the runtime has them.
+ *
+ * Design choices:
+ * - The build targets Java 17, so Thread.ofVirtual is looked up by reflection; the builders
+ *   are not public classes, so their methods are invoked through the interface Thread.Builder;
+ * - Without virtual threads the factory creates daemon platform threads: a background task
+ *   never keeps the JVM alive.
+ *
+ * @author marco
+ */
+public final class EightThreads {
+
+    private EightThreads(){}
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @param priority the priority of the platform threads, if there are no virtual threads
+     * @return the factory of virtual threads if the runtime has them, of daemon threads otherwise
+     */
+    public static ThreadFactory virtual(String name, int priority){
+        try {
+            Class<?> type = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = type.getMethod("name", String.class, long.class).invoke(builder, name+"-", 0L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e){
+            return r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                t.setPriority(priority);
+                return t;
+            };
+        }
+    }
+
+    /**
+     * @return true if the factories create virtual threads
+     */
+    public static boolean isVirtual(){
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ap.eightpuzzle;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Load generator of the game server: many connections play random clicks on their sessions
+ * and measure the latency of each one, on localhost.
+ *
+ * Each connection opens its sessions, then clicks a random tile of a random session, SYNCHRONOUSLY:
+ * a legal one (adjacent to the hole) or, with a given probability, an illegal one
+ * (a tile not adjacent to the hole, or a label out of the board).
+ * It follows its boards locally, so it knows the expected response of every click:
+ * a response that differs, or a final board ("B") that differs, is an error.
+ * The report gives the moves per second and the percentiles of the latency (from the request
+ * to its response); the exit status is 1 if there are errors.
+ *
+ * Design choices:
+ * - The connections are threads of EightThreads (virtual when the runtime has them),
+ *   blocking on their channels, as the ones of the server;
+ * - Each connection records its latencies in its own array; the arrays are merged and sorted
+ *   at the end, so measuring costs no synchronization;
+ * - "--embedded" starts the server in the same JVM, on a free port.
+ *
+ * Usage: [--port n | --embedded] [--connections n] [--sessions n] [--moves n] [--side n] [--illegal percent] [--seed n]
+ *
+ * @author marco
+ */
+public final class EightLoad {
+
+    /**
+     * A connection and its sessions
+     */
+    private static final class Client implements Runnable {
+        private final InetSocketAddress address;
+        private final int sessions, moves, side, illegal;
+        private final SplittableRandom random;
+        private final ByteBuffer in = ByteBuffer.allocate(EightServer.MAX_LINE);
+        private final ByteBuffer out = ByteBuffer.allocate(EightServer.MAX_LINE);
+        private SocketChannel channel;
+        final long[] latencies;                     // nanoseconds of each click
+        long legal, vetoes, errors;
+        IOException failure;
+
+        Client(InetSocketAddress address, int sessions, int moves, int side, int illegal, long seed){
+            this.address = address;
+            this.sessions = sessions;
+            this.moves = moves;
+            this.side = side;
+            this.illegal = illegal;
+            this.random = new SplittableRandom(seed);
+            this.latencies = new long[moves];
+            this.in.limit(0);
+        }
+
+        @Override
+        public void run(){
+            try (SocketChannel c = SocketChannel.open(address)){
+                this.channel = c;
+                c.socket().setTcpNoDelay(true);
+                play();
+                send("Q");
+            }
+            catch (IOException e){
+                failure = e;
+            }
+        }
+
+        private void play() throws IOException {
+            int[] ids = new int[sessions];
+            EightLayout[] boards = new EightLayout[sessions];
+            for (int s=0; s < sessions; s++){
+                String[] r = call("N "+side).split(" ");
+                ids[s] = Integer.parseInt(r[1]);
+                int[] layout = new int[side*side];
+                for (int p=0; p < layout.length; p++)
+                    layout[p] = Integer.parseInt(r[p+2]);
+                boards[s] = new EightLayout(side);
+                boards[s].reset(layout);
+            }
+
+            for (int i=0; i < moves; i++){
+                int s = random.nextInt(sessions);
+                EightLayout board = boards[s];
+                int label, dir = -1;
+                if (random.nextInt(100) < illegal){
+                    // a tile of the board that is not adjacent to the hole, or sometimes no tile at all
+                    if (random.nextInt(4) == 0)
+                        label = random.nextBoolean() ? -random.nextInt(4) : board.getSize() + 1 + random.nextInt(100);
+                    else
+                        do label = 1 + random.nextInt(board.getSize()); while (board.isLegal(label));
+                }
+                else{
+                    do dir = random.nextInt(4); while (!board.canMove(dir));
+                    label = board.neighbour(dir);
+                }
+                long start = System.nanoTime();
+                String r = call("M "+ids[s]+" "+label);
+                latencies[i] = System.nanoTime() - start;
+                if (!r.equals(dir >= 0 ? "OK" : "KO"))
+                    errors++;
+                else if (dir >= 0){
+                    board.move(dir);
+                    legal++;
+                }
+                else
+                    vetoes++;
+            }
+
+            for (int s=0; s < sessions; s++){
+                StringBuilder expected = new StringBuilder("B ").append(boards[s].isSolved() ? 1 : 0);
+                for (int p=1; p <= boards[s].getSize(); p++)
+                    expected.append(' ').append(boards[s].label(p));
+                if (!call("B "+ids[s]).equals(expected.toString()))
+                    errors++;
+                call("X "+ids[s]);
+            }
+        }
+
+        /**
+         * Sends a command and waits for its response
+         */
+        private String call(String command) throws IOException {
+            send(command);
+            while (true){
+                byte[] a = in.array();
+                for (int i=in.position(); i < in.limit(); i++)
+                    if (a[i] == '\n'){
+                        String line = new String(a, in.position(), i - in.position(), StandardCharsets.US_ASCII);
+                        in.position(i+1);
+                        return line;
+                    }
+                in.compact();
+                int n = channel.read(in);
+                in.flip();
+                if (n < 0)
+                    throw new EOFException("The server closed the connection");
+            }
+        }
+
+        private void send(String command) throws IOException {
+            out.clear();
+            for (int i=0; i < command.length(); i++)
+                out.put((byte) command.charAt(i));
+            out.put((byte) '\n');
+            out.flip();
+            while (out.hasRemaining())
+                channel.write(out);
+        }
+    }
+
+    private EightLoad(){}
+
+    /**
+     * Command line entry point
+     * @param args the options, see the usage
+     * @throws IOException if the embedded server cannot be started
+     * @throws InterruptedException if interrupted while waiting for the connections
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = EightServer.PORT, connections = 64, sessions = 4, moves = 10_000, side = 3, illegal = 10;
+        long seed = 42;
+        boolean embedded = false;
+        for (int i=0; i < args.length; i++){
+            if ("--embedded".equals(args[i])){
+                embedded = true;
+                continue;
+            }
+            if (i+1 == args.length)
+                usage();
+            switch (args[i]){
+                case "--port":          port = Integer.parseInt(args[++i]); break;
+                case "--connections":   connections = Integer.parseInt(args[++i]); break;
+                case "--sessions":      sessions = Integer.parseInt(args[++i]); break;
+                case "--moves":         moves = Integer.parseInt(args[++i]); break;
+                case "--side":          side = Integer.parseInt(args[++i]); break;
+                case "--illegal":       illegal = Integer.parseInt(args[++i]); break;
+                case "--seed":          seed = Long.parseLong(args[++i]); break;
+                default:                usage();
+            }
+        }
+
+        EightServer server = null;
+        if (embedded){
+            System.setProperty("java.awt.headless", "true");
+            server = new EightServer(0, connections*sessions);
+            server.start();
+            port = server.getPort();
+        }
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        ThreadFactory threads = EightThreads.virtual("eight-load", Thread.NORM_PRIORITY);
+        Client[] clients = new Client[connections];
+        Thread[] workers = new Thread[connections];
+        long start = System.nanoTime();
+        for (int c=0; c < connections; c++){
+            clients[c] = new Client(address, sessions, moves, side, illegal, seed+c);
+            workers[c] = threads.newThread(clients[c]);
+            workers[c].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (server != null)
+            server.close();
+
+        long legal = 0, vetoes = 0, errors = 0;
+        long[] latencies = new long[connections*moves];
+        int n = 0;
+        for (Client c : clients){
+            if (c.failure != null){
+                System.err.println("Connection failed: "+c.failure);
+                errors++;
+                continue;
+            }
+            legal += c.legal;
+            vetoes += c.vetoes;
+            errors += c.errors;
+            System.arraycopy(c.latencies, 0, latencies, n, c.latencies.length);
+            n += c.latencies.length;
+        }
+        Arrays.sort(latencies, 0, n);
+        System.err.printf("%d connections, %d sessions: %d moves, %d vetoes, %d errors in %.3f s%n",
+                          connections, connections*sessions, legal, vetoes, errors, seconds);
+        System.err.printf("%.0f clicks/s, %.0f moves/s; latency p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                          n / seconds, legal / seconds, percentile(latencies, n, 50) / 1e3,
+                          percentile(latencies, n, 99) / 1e3, n > 0 ? latencies[n-1] / 1e3 : 0.0);
+        if (errors > 0)
+            System.exit(1);
+    }
+
+    /**
+     * @return the p-th percentile of the first n sorted values, 0 if none
+     */
+    private static long percentile(long[] sorted, int n, int p){
+        if (n == 0)
+            return 0;
+        return sorted[Math.min(n-1, (int) ((long) n*p / 100))];
+    }
+
+    private static void usage(){
+        System.err.println("Usage: [--port n | --embedded] [--connections n] [--sessions n] [--moves n] [--side n] [--illegal percent] [--seed n]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,393 @@
+package ap.eightpuzzle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Headless game server: hosts many independent boards (sessions), each one checked
+ * by its own EightController, and plays them through a line protocol on localhost.
+ *
+ * Protocol: one command per line, one response line per command (<id> is a session):
+ * - "N [side]": new session, with a random board that can be sorted -> "S <id> <labels...>";
+ * - "M <id> <label>": click of the tile with that label -> "OK" or "KO" (vetoed, or not a label of the board);
+ * - "A <id> <moves>": sequence of moves of the hole, as letters U, D, L, R and F (flip)
+ *   -> "OK", or "KO <index>" of the first illegal one, and nothing is applied;
+ * - "F <id>": flip -> "OK" or "KO";  "U <id>", "R <id>": undo, redo -> "OK" or "KO";
+ * - "B <id>": the board -> "B <solved 0/1> <labels...>";
+ * - "S <id>": restart with a new random board -> "S <id> <labels...>";
+ * - "X <id>": close the session -> "OK";  "Q": close the connection;
+ * - anything else, or an unknown session -> "ERR <reason>".
+ *
+ * Design choices:
+ * - The rules are the ones of the game: each session wires an EightController to its own EightBus,
+ *   and a click is a requestMove on it, as for a tile of the board;
+ * - The server binds the loopback address only;
+ * - Each connection is served by its own thread, a virtual one when the runtime has them (EightThreads),
+ *   blocking on its NIO channel: the code of a connection is sequential, and the carriers are shared;
+ * - The sessions are not owned by the connections (any connection can play any session):
+ *   each command locks its session through a stripe of STRIPES ReentrantLocks, chosen by the id,
+ *   so the sessions never share a global lock and a virtual thread never pins its carrier;
+ * - The commands are read from a buffer and the responses are flushed when the buffered commands
+ *   are exhausted, so a pipelining client pays one write per batch of commands;
+ * - The new boards come from an EightScramble per side, shared by all the connections.
+ *
+ * Usage: [--port n] [--max-sessions n]
+ *
+ * @author marco
+ */
+public final class EightServer implements Closeable {
+    public static final int PORT = 8088;
+    static final int MAX_LINE = 1 << 16;            // bytes of a command, line terminator included
+    static final int MAX_SIDE = 32;
+    static final int STRIPES = 256;
+    static final String MOVES = "UDLRF";           // letters of the directions and of the flip
+    static final String COMMANDS = "NMAFURBSX";     // letters of the commands, besides Q
+
+    /**
+     * A board and its controller
+     */
+    private static final class Session {
+        final int side;
+        final EightBus bus = new EightBus();
+        final EightController controller;
+
+        Session(int side, int[] layout){
+            this.side = side;
+            this.controller = new EightController(side);
+            this.controller.setBus(bus);
+            this.bus.fireRestarted(layout);
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final int max_sessions;
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, EightScramble> scrambles = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ThreadFactory threads = EightThreads.virtual("eight-server", Thread.NORM_PRIORITY);
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Binds the server on the loopback address
+     * @param port the port, 0 for any free one
+     * @param max_sessions the maximum number of sessions open at once
+     * @throws IOException if the port cannot be bound
+     */
+    public EightServer(int port, int max_sessions) throws IOException {
+        this.max_sessions = max_sessions;
+        for (int i=0; i < STRIPES; i++)
+            locks[i] = new ReentrantLock();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+    }
+
+    /**
+     * @return the port bound
+     */
+    public int getPort(){
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of sessions open
+     */
+    public int getSessions(){
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of connections accepted
+     */
+    public long getConnections(){
+        return connections.sum();
+    }
+
+    /**
+     * @return the number of commands executed
+     */
+    public long getCommands(){
+        return commands.sum();
+    }
+
+    /**
+     * Accepts the connections on a new thread, until closed
+     */
+    public void start(){
+        Thread acceptor = new Thread(this::accept, "eight-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections; the open ones end at their next read
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+    }
+
+    /**
+     * Command line entry point
+     * @param args the options, see the usage
+     * @throws IOException if the port cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        int port = PORT, max = 1_000_000;
+        for (int i=0; i < args.length; i++){
+            if ("--port".equals(args[i]) && i+1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if ("--max-sessions".equals(args[i]) && i+1 < args.length)
+                max = Integer.parseInt(args[++i]);
+            else{
+                System.err.println("Usage: [--port n] [--max-sessions n]");
+                System.exit(2);
+            }
+        }
+        EightServer server = new EightServer(port, max);
+        server.start();
+        System.err.println("Listening on "+InetAddress.getLoopbackAddress().getHostAddress()+":"+server.getPort()
+                           +(EightThreads.isVirtual() ? ", virtual threads" : ", platform threads"));
+        Thread.currentThread().join();
+    }
+
+    /********** Connections **********/
+
+    private void accept(){
+        while (!closed){
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            }
+            catch (ClosedChannelException e){
+                return;
+            }
+            catch (IOException e){
+                continue;
+            }
+            connections.increment();
+            threads.newThread(() -> serve(channel)).start();
+        }
+    }
+
+    /**
+     * Executes the commands of a connection until it is closed
+     */
+    private void serve(SocketChannel channel){
+        ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        ByteBuffer out = ByteBuffer.allocate(MAX_LINE);
+        StringBuilder sb = new StringBuilder(256);
+        try (channel){
+            channel.socket().setTcpNoDelay(true);
+            while (!closed && channel.read(in) >= 0){
+                in.flip();
+                boolean quit = false;
+                for (int end; !quit && (end = lineEnd(in)) >= 0; ){
+                    String line = new String(in.array(), in.position(), end - in.position(), StandardCharsets.US_ASCII).trim();
+                    in.position(end+1);
+                    if (line.equals("Q")){
+                        quit = true;
+                        break;
+                    }
+                    sb.setLength(0);
+                    execute(line, sb);
+                    sb.append('\n');
+                    write(channel, out, sb);
+                }
+                if (!quit && in.position() == 0 && in.limit() == in.capacity()){
+                    sb.setLength(0);
+                    write(channel, out, sb.append("ERR line too long\n"));
+                    quit = true;
+                }
+                flush(channel, out);
+                if (quit)
+                    return;
+                in.compact();
+            }
+        }
+        catch (IOException e){
+            // the client went away
+        }
+    }
+
+    /**
+     * @return the index of the next '\n' in the readable bytes, -1 if none
+     */
+    private static int lineEnd(ByteBuffer in){
+        byte[] a = in.array();
+        for (int i=in.position(); i < in.limit(); i++)
+            if (a[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out, CharSequence response) throws IOException {
+        for (int i=0; i < response.length(); i++){
+            if (!out.hasRemaining())
+                flush(channel, out);
+            out.put((byte) response.charAt(i));
+        }
+    }
+
+    private static void flush(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+    /********** Commands **********/
+
+    /**
+     * Executes a command
+     * @param line the command, without the line terminator
+     * @param sb the response, without the line terminator
+     */
+    void execute(String line, StringBuilder sb){
+        commands.increment();
+        String[] args = line.split(" +");
+        if (args[0].length() != 1 || COMMANDS.indexOf(args[0].charAt(0)) < 0){
+            sb.append("ERR unknown command");
+            return;
+        }
+        char command = args[0].charAt(0);
+        try {
+            if (command == 'N'){
+                create(args.length > 1 ? Integer.parseInt(args[1]) : 3, sb);
+                return;
+            }
+            if (args.length < 2){
+                sb.append("ERR missing session");
+                return;
+            }
+            int id = Integer.parseInt(args[1]);
+            Session s = sessions.get(id);
+            if (s == null){
+                sb.append("ERR no session ").append(id);
+                return;
+            }
+            ReentrantLock lock = locks[id & (STRIPES-1)];
+            lock.lock();
+            try {
+                execute(command, id, s, args, sb);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        catch (NumberFormatException e){
+            sb.setLength(0);
+            sb.append("ERR malformed command");
+        }
+    }
+
+    /**
+     * Executes a command on a session, under its lock
+     */
+    private void execute(char command, int id, Session s, String[] args, StringBuilder sb){
+        switch (command){
+            case 'M':
+                if (args.length < 3){
+                    sb.append("ERR missing label");
+                    break;
+                }
+                // a label out of the board is an illegal click, never a lookup
+                int label = Integer.parseInt(args[2]);
+                boolean moved = label >= 1 && label <= s.side*s.side && s.bus.requestMove(label);
+                sb.append(moved ? "OK" : "KO");
+                break;
+            case 'A':
+                int illegal = s.controller.applyMoves(parse(args.length > 2 ? args[2] : ""));
+                if (illegal < 0)
+                    sb.append("OK");
+                else
+                    sb.append("KO ").append(illegal);
+                break;
+            case 'F':
+                sb.append(s.bus.requestFlip() ? "OK" : "KO");
+                break;
+            case 'U':
+                sb.append(s.controller.undo() ? "OK" : "KO");
+                break;
+            case 'R':
+                sb.append(s.controller.redo() ? "OK" : "KO");
+                break;
+            case 'B':
+                EightLayout board = s.controller.getBoard();
+                sb.append("B ").append(board.isSolved() ? 1 : 0);
+                for (int p=1; p <= board.getSize(); p++)
+                    sb.append(' ').append(board.label(p));
+                break;
+            case 'S':
+                int[] layout = scramble(s.side).next();
+                s.bus.fireRestarted(layout);
+                append(sb.append("S ").append(id), layout);
+                break;
+            case 'X':
+                sessions.remove(id);
+                sb.append("OK");
+                break;
+            default:
+                sb.append("ERR unknown command");
+        }
+    }
+
+    /**
+     * Opens a session with a random board that can be sorted
+     */
+    private void create(int side, StringBuilder sb){
+        if (side < 2 || side > MAX_SIDE){
+            sb.append("ERR side from 2 to ").append(MAX_SIDE);
+            return;
+        }
+        if (sessions.size() >= max_sessions){
+            sb.append("ERR too many sessions");
+            return;
+        }
+        int[] layout = scramble(side).next();
+        int id = ids.incrementAndGet();
+        sessions.put(id, new Session(side, layout));
+        append(sb.append("S ").append(id), layout);
+    }
+
+    private EightScramble scramble(int side){
+        return scrambles.computeIfAbsent(side, EightScramble::new);
+    }
+
+    private static void append(StringBuilder sb, int[] layout){
+        for (int l : layout)
+            sb.append(' ').append(l);
+    }
+
+    /**
+     * @return the codes of a sequence of moves (EightLayout directions and EightHistory.FLIP)
+     * @throws NumberFormatException if a letter is not a move
+     */
+    static byte[] parse(String moves){
+        byte[] dirs = new byte[moves.length()];
+        for (int i=0; i < dirs.length; i++){
+            int d = MOVES.indexOf(moves.charAt(i));
+            if (d < 0)
+                throw new NumberFormatException("Not a move: "+moves.charAt(i));
+            dirs[i] = (byte) d;
+        }
+        return dirs;
+    }
+}
@@ -0,0 +1,162 @@
+package ap.eightpuzzle;
+
+import java.awt.GraphicsEnvironment;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.swing.Timer;
+
+/**
+ * Scheduler of the animations of a board (flashes, slides, highlights): all the running effects
+ * are advanced by a single Swing timer, on the event dispatch thread.
+ *
+ * Design choices:
+ * - An effect is a function of its progress t in [0, 1], invoked once per frame and a last time
+ *   with t = 1, which must restore the final state of its target;
+ * - Every effect has a key (e.g. the tile it animates): playing an effect on a key supersedes
+ *   the running one, which is completed at once (t = 1) instead of being left behind;
+ * - The timer runs only while some effect is running, and each frame advances at most
+ *   MAX_PER_FRAME effects in round robin: the work of a frame is bounded whatever the number
+ *   of effects, a late effect just skips frames since its progress depends on the clock;
+ * - Without a display (java.awt.headless) there is nothing to animate: an effect is completed
+ *   at once and no timer is started, so headless drivers may run the beans on any thread;
+ * - With a display, the methods must be invoked on the event dispatch thread, as the ones of Swing.
+ *
+ * @author marco
+ */
+public final class EightAnimator {
+    public static final int FRAME = 16;             // milliseconds between two frames
+    static final int MAX_PER_FRAME = 256;
+    private static final boolean HEADLESS = GraphicsEnvironment.isHeadless();
+
+    /**
+     * An animation: frame(t) is invoked with a growing t, the last time with t = 1
+     */
+    public interface Effect {
+        void frame(float t);
+    }
+
+    private static EightAnimator shared;
+
+    private final Timer timer;
+    private final Map<Object, Running> running = new IdentityHashMap<>();
+    private Running[] queue = new Running[16];      // round robin order
+    private int size;
+    private int cursor;                             // next effect to advance
+
+    /**
+     * Effect in progress
+     */
+    private static final class Running {
+        final Object key;
+        final Effect effect;
+        final long start;
+        final int duration;
+        int index;                                  // position in the queue
+
+        Running(Object key, Effect effect, long start, int duration){
+            this.key = key;
+            this.effect = effect;
+            this.start = start;
+            this.duration = duration;
+        }
+    }
+
+    public EightAnimator(){
+        this.timer = new Timer(FRAME, e -> tick(System.currentTimeMillis()));
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * @return the scheduler shared by the components of the boards
+     */
+    public static EightAnimator shared(){
+        if (shared == null)
+            shared = new EightAnimator();
+        return shared;
+    }
+
+    /**
+     * Starts an effect, completing the one running on the same key
+     * @param key the target of the effect, compared by identity
+     * @param duration milliseconds
+     * @param effect the animation
+     */
+    public void play(Object key, int duration, Effect effect){
+        if (HEADLESS){
+            effect.frame(1f);
+            return;
+        }
+        cancel(key);
+        Running r = new Running(key, effect, System.currentTimeMillis(), Math.max(duration, 1));
+        if (size == queue.length)
+            queue = Arrays.copyOf(queue, 2*size);
+        r.index = size;
+        queue[size++] = r;
+        running.put(key, r);
+        effect.frame(0f);
+        if (!timer.isRunning())
+            timer.start();
+    }
+
+    /**
+     * Completes the effect running on a key, if any
+     * @param key the target of the effect
+     */
+    public void cancel(Object key){
+        Running r = running.get(key);
+        if (r != null){
+            remove(r);
+            r.effect.frame(1f);
+        }
+    }
+
+    /**
+     * @param key the target of an effect
+     * @return true if an effect is running on the key
+     */
+    public boolean isRunning(Object key){
+        return running.containsKey(key);
+    }
+
+    /**
+     * @return the number of running effects
+     */
+    public int size(){
+        return size;
+    }
+
+    /********** Auxiliary methods **********/
+
+    /**
+     * Advances at most MAX_PER_FRAME effects, from the cursor on
+     */
+    void tick(long now){
+        int n = Math.min(size, MAX_PER_FRAME);
+        for (int i=0; i < n && size > 0; i++){
+            if (cursor >= size)
+                cursor = 0;
+            Running r = queue[cursor];
+            float t = (now - r.start) / (float) r.duration;
+            if (t >= 1f){
+                // the last one takes the place of r: the cursor stays
+                remove(r);
+                r.effect.frame(1f);
+            }
+            else{
+                r.effect.frame(t);
+                cursor++;
+            }
+        }
+        if (size == 0)
+            timer.stop();
+    }
+
+    private void remove(Running r){
+        running.remove(r.key);
+        Running last = queue[--size];
+        queue[r.index] = last;
+        last.index = r.index;
+        queue[size] = null;
+    }
+}
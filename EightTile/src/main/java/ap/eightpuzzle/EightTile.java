@@ -7,7 +7,6 @@ import java.beans.PropertyVetoException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import javax.swing.JButton;
-import javax.swing.Timer;
 
 /**
  * Advanced Programming - Assignment 1.1
@@ -43,7 +42,16 @@ import javax.swing.Timer;
  * - The getter of the label returns a string value, even if the field is an integer;
  *   this is due to a compilation requirement for the overriding.
  *   Again, an alternative could be the overloading through a dummy parameter;
- * - The "hole label" is stored in a final variable for future extensions (ie. the famous 16 version)
+ * - The "hole label" is stored in a final variable, given to the constructor for the larger boards 
+ *   (ie. the famous 16 version)
+ * - When wired to an EightBus (setBus), a click is a typed request to the bus and the restart
+ *   is a typed event: no PropertyChangeEvent, boxing nor exception on a move;
+ *   without a bus the tile falls back to the bean events above;
+ * - The label is compared as an int: the string getter is only for the bean property;
+ * - The updates of a restart or a flip are applied in batch (applyLabel): they neither repaint
+ *   nor revalidate the tile, the board repaints all the tiles at once;
+ * - The flash is an effect of the shared EightAnimator, keyed by the tile:
+ *   it ends by itself and a new flash of the same tile supersedes the running one;
  *    
  * Event source:
  * - a tile is clicked
@@ -54,10 +62,14 @@ import javax.swing.Timer;
  * @author marco
  */
 public class EightTile extends JButton 
-        implements Serializable, PropertyChangeListener {
+        implements Serializable, PropertyChangeListener, EightBus.Listener {
     private final int position;             // position in the board
     private int label;                      // current number
-    private static final int hole_label = 9;
+    private final int hole_label;           // number of cells of the board
+    private static final int FLASH = 500;   // milliseconds of red after a veto
+    private static final int HINT = 1000;   // milliseconds of cyan of a hint
+    private transient EightBus bus;         // null if wired through the bean events only
+    private transient boolean deferred;     // true during a batch update: no repaint
     
     /********** Constructors **********/
     
@@ -66,10 +78,16 @@ public class EightTile extends JButton
         this(0); 
     }
     
-    // Constructor that passes the position to the tile; the label is not defined
+    // Constructor that passes the position to the tile of the 8 version; the label is not defined
     public EightTile(int position){
+        this(position, 9);
+    }
+    
+    // Constructor that passes the position and the hole label (the number of cells) to the tile
+    public EightTile(int position, int hole_label){
         super();
         this.position = position;
+        this.hole_label = hole_label;
         this.setBackground(Color.darkGray);
     }
     
@@ -84,6 +102,14 @@ public class EightTile extends JButton
         return Integer.toString(label);
     }
     
+    /**
+     * Not a bean getter: the label as an int, for the listeners that compare it
+     * @return this.label
+     */
+    public int labelValue(){
+        return label;
+    }
+    
     /**
      * @param label value to set
      */
@@ -91,6 +117,17 @@ public class EightTile extends JButton
         this.label=label;
     }
 
+    /**
+     * Registers the tile as listener of a bus, to which the clicks are requested
+     * @param bus the bus of the board
+     */
+    public void setBus(EightBus bus){
+        if (this.bus != null)
+            this.bus.removeListener(this);
+        this.bus = bus;
+        bus.addListener(this);
+    }
+
     /**
      * @return a string representation of this.position
      */
@@ -119,13 +156,48 @@ public class EightTile extends JButton
         this.setBackground(this.chooseBgColor());
     }
     
+    /**
+     * Same as updateLabel, but neither repaints nor revalidates the tile:
+     * used by the batch updates, whose caller repaints the whole board once
+     * @param label label to set
+     */
+    public void applyLabel(int label){
+        this.deferred = true;
+        try {
+            this.updateLabel(label);
+        }
+        finally{
+            this.deferred = false;
+        }
+    }
+    
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height){
+        if (!deferred)
+            super.repaint(tm, x, y, width, height);
+    }
+    
+    @Override
+    public void revalidate(){
+        if (!deferred)
+            super.revalidate();
+    }
+    
     /**
      * When a tile is clicked, set the bound and constrained property label to the hole label;
      * if the update is vetoed, the tile must flashes red;
      * if the update is not vetoed, notify the listeners;
      */
     public void onClick(){
-        int old = Integer.parseInt(this.getLabel());
+        if (this.bus != null){
+            if (this.bus.requestMove(this.label))
+                this.updateLabel(hole_label);
+            else
+                this.flashes();
+            return;
+        }
+        
+        int old = this.label;
         try{
             this.fireVetoableChange("label", old, hole_label);
             
@@ -147,7 +219,7 @@ public class EightTile extends JButton
      */
     private Color chooseBgColor(){
         return  this.is_hole() ? Color.GRAY : 
-                (this.getLabel().equals(this.getPosition()) ? Color.GREEN : Color.YELLOW);
+                (this.label == this.position ? Color.GREEN : Color.YELLOW);
     }
     
     /**
@@ -155,15 +227,25 @@ public class EightTile extends JButton
      * @return true if this.label == hole label, false otherwise
      */
     private boolean is_hole(){
-        return this.getLabel().equals(String.valueOf(hole_label));
+        return this.label == hole_label;
     }
     
     /**
-     * Set the background red for half second, then reset it
+     * Set the background red for half second, then reset it;
+     * a click during the flash restarts it instead of stacking another one
      */
     private void flashes(){
-        this.setBackground(Color.RED);
-        new Timer(500, e -> setBackground(this.chooseBgColor()) ).start();
+        EightAnimator.shared().play(this, FLASH, t -> 
+            this.setBackground(t < 1f ? Color.RED : this.chooseBgColor()));
+    }
+
+    /**
+     * Set the background cyan for a second, to suggest the move of this tile;
+     * it shares the key of the flash, so a veto or a new hint supersedes it
+     */
+    public void highlight(){
+        EightAnimator.shared().play(this, HINT, t -> 
+            this.setBackground(t < 1f ? Color.CYAN : this.chooseBgColor()));
     }
 
     /**
@@ -174,6 +256,16 @@ public class EightTile extends JButton
         this.updateLabel(newLayout.get(this.position-1));
     }
     
+    /**
+     * A restart event is triggered on the bus! Update the label for this tile;
+     * the restart is a batch update: the source of the event repaints the board once
+     * @param newLayout the i-th element is the label of the (i+1)-th tile
+     */
+    @Override
+    public void restarted(int[] newLayout){
+        this.applyLabel(newLayout[this.position-1]);
+    }
+    
     /**
      * A restart event is triggered! Update the label for this tile
      * @param evt 